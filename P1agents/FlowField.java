@@ -0,0 +1,158 @@
+import edu.cwru.sepia.util.Direction;
+
+/**
+ * Integration field and flow field towards one destination. A breadth-first
+ * search from the destination gives every cell the number of moves needed to
+ * reach it, and every cell then points at its neighbor with the smallest
+ * distance. Any number of units heading to the same destination can look up
+ * their next move in constant time instead of each one searching for a path.
+ */
+public class FlowField {
+
+	//
+	// references
+	//
+
+	// stored in each cell that cannot reach the destination
+	public static final int UNREACHABLE = -1;
+
+	// the 8 directions in the order their moves are tried
+	private static final Direction[] DIRECTIONS = Direction.values();
+
+	//
+	// instance fields
+	//
+
+	private final int xExtent;
+	private final int yExtent;
+	private final int destinationX;
+	private final int destinationY;
+
+	// number of moves from each cell to the destination
+	private final int[] distance;
+
+	// index in DIRECTIONS of the move to make from each cell, or -1 if there is none
+	private final byte[] flow;
+
+	//
+	// constructor method
+	//
+
+	/**
+	 * @param xExtent the width of the map
+	 * @param yExtent the height of the map
+	 * @param blocked true for every cell (y * xExtent + x) units cannot move onto
+	 * @param destinationX the x coordinate of the destination
+	 * @param destinationY the y coordinate of the destination
+	 */
+	public FlowField(int xExtent, int yExtent, boolean[] blocked, int destinationX, int destinationY) {
+		this.xExtent = xExtent;
+		this.yExtent = yExtent;
+		this.destinationX = destinationX;
+		this.destinationY = destinationY;
+
+		distance = new int[xExtent * yExtent];
+		flow = new byte[xExtent * yExtent];
+
+		integrate(blocked);
+		buildFlow();
+	}
+
+	//
+	// getter methods
+	//
+
+	public int getDestinationX() {
+		return destinationX;
+	}
+
+	public int getDestinationY() {
+		return destinationY;
+	}
+
+	/**
+	 * @return the number of moves from (x, y) to the destination, or UNREACHABLE
+	 */
+	public int getDistance(int x, int y) {
+		if (x < 0 || x >= xExtent || y < 0 || y >= yExtent) {
+			return UNREACHABLE;
+		}
+		return distance[y * xExtent + x];
+	}
+
+	/**
+	 * @return the direction of the next move from (x, y) towards the destination,
+	 *         or null if the unit is already there or cannot get there
+	 */
+	public Direction getDirection(int x, int y) {
+		if (x < 0 || x >= xExtent || y < 0 || y >= yExtent) {
+			return null;
+		}
+
+		int move = flow[y * xExtent + x];
+		return move == -1 ? null : DIRECTIONS[move];
+	}
+
+	//
+	// helper methods
+	//
+
+	/**
+	 * breadth-first search from the destination, every move costs one turn
+	 */
+	private void integrate(boolean[] blocked) {
+		for (int i = 0; i < distance.length; i++) {
+			distance[i] = UNREACHABLE;
+		}
+
+		// the cells are visited in order of distance, so the queue is a plain array
+		int[] queue = new int[distance.length];
+		int head = 0;
+		int tail = 0;
+
+		int destination = destinationY * xExtent + destinationX;
+		distance[destination] = 0;
+		queue[tail++] = destination;
+
+		while (head < tail) {
+			int cell = queue[head++];
+			int x = cell % xExtent;
+			int y = cell / xExtent;
+
+			for (Direction direction : DIRECTIONS) {
+				int nextX = x + direction.xComponent();
+				int nextY = y + direction.yComponent();
+				if (nextX < 0 || nextX >= xExtent || nextY < 0 || nextY >= yExtent) {
+					continue;
+				}
+
+				int next = nextY * xExtent + nextX;
+				if (!blocked[next] && distance[next] == UNREACHABLE) {
+					distance[next] = distance[cell] + 1;
+					queue[tail++] = next;
+				}
+			}
+		}
+	}
+
+	/**
+	 * points every reachable cell at the neighbor closest to the destination
+	 */
+	private void buildFlow() {
+		for (int cell = 0; cell < distance.length; cell++) {
+			flow[cell] = -1;
+			if (distance[cell] == UNREACHABLE || distance[cell] == 0) {
+				continue;
+			}
+
+			int x = cell % xExtent;
+			int y = cell / xExtent;
+			for (int i = 0; i < DIRECTIONS.length; i++) {
+				if (getDistance(x + DIRECTIONS[i].xComponent(), y + DIRECTIONS[i].yComponent()) == distance[cell] - 1) {
+					flow[cell] = (byte) i;
+					break;
+				}
+			}
+		}
+	}
+}
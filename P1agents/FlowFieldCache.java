@@ -0,0 +1,103 @@
+import java.util.HashMap;
+import java.util.Map;
+
+import edu.cwru.sepia.environment.model.state.ResourceNode.ResourceView;
+import edu.cwru.sepia.environment.model.state.State.StateView;
+import edu.cwru.sepia.environment.model.state.Unit.UnitView;
+
+/**
+ * Keeps one FlowField per destination so every unit headed to the same rally
+ * point shares it. The obstacles are the resources and the units that cannot
+ * move (such as towers). Units that can move are left out since they will not
+ * stay in the way. The fields are thrown away whenever a resource or a building
+ * appears or disappears.
+ */
+public class FlowFieldCache {
+
+	//
+	// instance fields
+	//
+
+	// fields by destination cell (y * xExtent + x)
+	private final Map<Integer, FlowField> fields = new HashMap<Integer, FlowField>();
+
+	// the cells of the obstacles the fields were built for, and how many there are
+	private boolean[] blocked;
+	private int obstacleCount;
+	private int xExtent;
+	private int yExtent;
+
+	// number of fields built since the cache was created
+	private int fieldsBuilt = 0;
+
+	//
+	// public methods
+	//
+
+	/**
+	 * checks the obstacles on the map and drops every field if they changed, this
+	 * should be called once per turn before any field is looked up
+	 */
+	public void update(StateView state) {
+		int width = state.getXExtent();
+		int height = state.getYExtent();
+
+		// the obstacles are the same if there are as many as before and each is on
+		// a cell that was blocked, no two obstacles share a cell
+		if (blocked != null && width == xExtent && height == yExtent) {
+			int count = 0;
+			boolean same = true;
+			for (ResourceView resource : state.getAllResourceNodes()) {
+				same &= blocked[resource.getYPosition() * width + resource.getXPosition()];
+				count++;
+			}
+			for (UnitView unit : state.getAllUnits()) {
+				if (!unit.getTemplateView().canMove()) {
+					same &= blocked[unit.getYPosition() * width + unit.getXPosition()];
+					count++;
+				}
+			}
+			if (same && count == obstacleCount) {
+				return;
+			}
+		}
+
+		xExtent = width;
+		yExtent = height;
+		blocked = new boolean[xExtent * yExtent];
+		obstacleCount = 0;
+		for (ResourceView resource : state.getAllResourceNodes()) {
+			blocked[resource.getYPosition() * width + resource.getXPosition()] = true;
+			obstacleCount++;
+		}
+		for (UnitView unit : state.getAllUnits()) {
+			if (!unit.getTemplateView().canMove()) {
+				blocked[unit.getYPosition() * width + unit.getXPosition()] = true;
+				obstacleCount++;
+			}
+		}
+		fields.clear();
+	}
+
+	/**
+	 * @return the field towards (x, y), built the first time it is asked for after
+	 *         the obstacles changed
+	 */
+	public FlowField getField(int x, int y) {
+		int destination = y * xExtent + x;
+		FlowField field = fields.get(destination);
+		if (field == null) {
+			field = new FlowField(xExtent, yExtent, blocked, x, y);
+			fields.put(destination, field);
+			fieldsBuilt++;
+		}
+		return field;
+	}
+
+	/**
+	 * @return the number of fields built since the cache was created
+	 */
+	public int getFieldsBuilt() {
+		return fieldsBuilt;
+	}
+}
@@ -2,8 +2,10 @@ import java.io.InputStream;
 import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import edu.cwru.sepia.action.Action;
 import edu.cwru.sepia.action.ActionFeedback;
@@ -12,9 +14,19 @@ import edu.cwru.sepia.agent.Agent;
 import edu.cwru.sepia.environment.model.history.History.HistoryView;
 import edu.cwru.sepia.environment.model.state.State.StateView;
 import edu.cwru.sepia.environment.model.state.Unit.UnitView;
+import edu.cwru.sepia.util.Direction;
 
 public class MyCombatAgent extends Agent {
 
+	//
+	// references
+	//
+
+	// the rally points the units are moved to before they attack
+	private final int rallyX = 0;
+	private final int rallyY = 15;
+	private final int ballistaRallyY = 16;
+
 	//
 	// instance fields
 	//
@@ -43,6 +55,12 @@ public class MyCombatAgent extends Agent {
 	private List<Integer> enemyBallistaIds;
 	private List<Integer> enemyTowerIds;
 
+	// one flow field per rally point, shared by every unit headed there
+	private FlowFieldCache flowFields = new FlowFieldCache();
+
+	// units still on their way to their rally point
+	private Set<Integer> rallyingIds;
+
 	//
 	// constructor method
 	//
@@ -98,15 +116,26 @@ public class MyCombatAgent extends Agent {
 				System.err.println("Unexpected Unit type: " + unitTypeName);
 		}
 
-		// start by commanding units to move
-		for (Integer myUnitID : ballistaIds) {
-			actions.put(myUnitID, Action.createCompoundMove(myUnitID, 0, 16));
-		}
-		for (Integer myUnitID : archerIds) {
-			actions.put(myUnitID, Action.createCompoundMove(myUnitID, 0, 15));
-		}
-		for (Integer myUnitID : footmenIds) {
-			actions.put(myUnitID, Action.createCompoundMove(myUnitID, 0, 15));
+		sortEnemyUnits(newstate);
+
+		// start by commanding units to move, each unit takes one step along the flow
+		// field of its rally point every time its last move is done. A unit that
+		// does not rally attacks right away, a unit with no action gets no feedback
+		// and would never be given one
+		flowFields.update(newstate);
+		rallyingIds = new HashSet<Integer>();
+		rallyingIds.addAll(ballistaIds);
+		rallyingIds.addAll(archerIds);
+		rallyingIds.addAll(footmenIds);
+
+		for (Integer myUnitID : new ArrayList<Integer>(rallyingIds)) {
+			Action action = rallyStep(newstate, myUnitID);
+			if (action == null) {
+				action = attackAction(newstate, myUnitID);
+			}
+			if (action != null) {
+				actions.put(myUnitID, action);
+			}
 		}
 
 		return actions;
@@ -145,35 +174,16 @@ public class MyCombatAgent extends Agent {
 				System.err.println("Unexpected Unit type: " + unitTypeName);
 		}
 
-		// get details about enemy units
-		enemyFootmenIds = new ArrayList<Integer>();
-		enemyArcherIds = new ArrayList<Integer>();
-		enemyBallistaIds = new ArrayList<Integer>();
-		enemyTowerIds = new ArrayList<Integer>();
-
-		UnitView enemyUnit;
-		String enemyUnitTypeName;
-		for (Integer enemyUnitID : enemyUnitIDs) {
-			enemyUnit = newstate.getUnit(enemyUnitID);
-			enemyUnitTypeName = enemyUnit.getTemplateView().getName();
-
-			if (enemyUnitTypeName.equals("ScoutTower"))
-				enemyTowerIds.add(enemyUnitID);
-			else if (enemyUnitTypeName.equals("Footman"))
-				enemyFootmenIds.add(enemyUnitID);
-			else if (enemyUnitTypeName.equals("Archer"))
-				enemyArcherIds.add(enemyUnitID);
-			else if (enemyUnitTypeName.equals("Ballista"))
-				enemyBallistaIds.add(enemyUnitID);
-			else
-				System.err.println("Unexpected Enemy Unit type: " + enemyUnitTypeName);
-		}
+		sortEnemyUnits(newstate);
 
 		if (enemyUnitIDs.size() == 0) {
 			// Nothing to do because there is no one left to attack
 			return actions;
 		}
 
+		// the fields are rebuilt only if a resource or a building appeared or disappeared
+		flowFields.update(newstate);
+
 		int currentStep = newstate.getTurnNumber();
 
 		// go through the action history
@@ -184,37 +194,25 @@ public class MyCombatAgent extends Agent {
 			if (feedback.getFeedback() != ActionFeedback.INCOMPLETE) {
 				int unitID = feedback.getAction().getUnitId();
 
-				if (newstate.getUnit(unitID).getTemplateView().getName().equals("Footman")) {
-					if (!enemyFootmenIds.isEmpty()) {
-						actions.put(unitID, Action.createCompoundAttack(unitID, enemyFootmenIds.get(0)));
-					} else if (!enemyArcherIds.isEmpty()) {
-						actions.put(unitID, Action.createCompoundAttack(unitID, enemyArcherIds.get(0)));
-					} else if (!enemyBallistaIds.isEmpty()) {
-						actions.put(unitID, Action.createCompoundAttack(unitID, enemyBallistaIds.get(0)));
-					} else if (!enemyTowerIds.isEmpty()) {
-						actions.put(unitID, Action.createCompoundAttack(unitID, enemyTowerIds.get(0)));
-					}
-				} else if (newstate.getUnit(unitID).getTemplateView().getName().equals("Archer")) {
-					if (!enemyFootmenIds.isEmpty()) {
-						actions.put(unitID, Action.createCompoundAttack(unitID, enemyFootmenIds.get(0)));
-					} else if (!enemyArcherIds.isEmpty()) {
-						actions.put(unitID, Action.createCompoundAttack(unitID, enemyArcherIds.get(0)));
-					} else if (!enemyBallistaIds.isEmpty()) {
-						actions.put(unitID, Action.createCompoundAttack(unitID, enemyBallistaIds.get(0)));
-					} else if (!enemyTowerIds.isEmpty()) {
-						actions.put(unitID, Action.createCompoundAttack(unitID, enemyTowerIds.get(0)));
-					}
-				} else if (newstate.getUnit(unitID).getTemplateView().getName().equals("Ballista")) {
-					if (!enemyFootmenIds.isEmpty()) {
-						actions.put(unitID, Action.createCompoundAttack(unitID, enemyFootmenIds.get(0)));
-					} else if (!enemyArcherIds.isEmpty()) {
-						actions.put(unitID, Action.createCompoundAttack(unitID, enemyArcherIds.get(0)));
-					} else if (!enemyBallistaIds.isEmpty()) {
-						actions.put(unitID, Action.createCompoundAttack(unitID, enemyBallistaIds.get(0)));
-					} else if (!enemyTowerIds.isEmpty()) {
-						actions.put(unitID, Action.createCompoundAttack(unitID, enemyTowerIds.get(0)));
+				// units that have not reached their rally point keep moving, a unit whose
+				// step failed has a unit the flow field does not know about in its way, so
+				// it stops rallying and attacks instead of trying the same step forever
+				if (rallyingIds.contains(unitID)) {
+					if (feedback.getFeedback() == ActionFeedback.FAILED) {
+						rallyingIds.remove(unitID);
+					} else {
+						Action move = rallyStep(newstate, unitID);
+						if (move != null) {
+							actions.put(unitID, move);
+							continue;
+						}
 					}
 				}
+
+				Action attack = attackAction(newstate, unitID);
+				if (attack != null) {
+					actions.put(unitID, attack);
+				}
 			}
 		}
 
@@ -223,6 +221,7 @@ public class MyCombatAgent extends Agent {
 
 	@Override
 	public void terminalStep(StateView newstate, HistoryView statehistory) {
+		System.out.println("Flow fields built: " + flowFields.getFieldsBuilt());
 		System.out.println("Finished the episode");
 	}
 
@@ -234,4 +233,88 @@ public class MyCombatAgent extends Agent {
 	public void loadPlayerData(InputStream is) {
 	}
 
+	//
+	// helper methods
+	//
+
+	/**
+	 * sorts the enemy units by type
+	 */
+	private void sortEnemyUnits(StateView newstate) {
+		enemyFootmenIds = new ArrayList<Integer>();
+		enemyArcherIds = new ArrayList<Integer>();
+		enemyBallistaIds = new ArrayList<Integer>();
+		enemyTowerIds = new ArrayList<Integer>();
+
+		UnitView enemyUnit;
+		String enemyUnitTypeName;
+		for (Integer enemyUnitID : enemyUnitIDs) {
+			enemyUnit = newstate.getUnit(enemyUnitID);
+			enemyUnitTypeName = enemyUnit.getTemplateView().getName();
+
+			if (enemyUnitTypeName.equals("ScoutTower"))
+				enemyTowerIds.add(enemyUnitID);
+			else if (enemyUnitTypeName.equals("Footman"))
+				enemyFootmenIds.add(enemyUnitID);
+			else if (enemyUnitTypeName.equals("Archer"))
+				enemyArcherIds.add(enemyUnitID);
+			else if (enemyUnitTypeName.equals("Ballista"))
+				enemyBallistaIds.add(enemyUnitID);
+			else
+				System.err.println("Unexpected Enemy Unit type: " + enemyUnitTypeName);
+		}
+	}
+
+	/**
+	 * @return a compound attack on the first enemy footman, archer, ballista or
+	 *         tower, in that order, or null if the unit does not attack or there is
+	 *         no enemy left
+	 */
+	private Action attackAction(StateView newstate, int unitID) {
+		String unitTypeName = newstate.getUnit(unitID).getTemplateView().getName();
+		if (!unitTypeName.equals("Footman") && !unitTypeName.equals("Archer") && !unitTypeName.equals("Ballista")) {
+			return null;
+		}
+
+		if (!enemyFootmenIds.isEmpty()) {
+			return Action.createCompoundAttack(unitID, enemyFootmenIds.get(0));
+		} else if (!enemyArcherIds.isEmpty()) {
+			return Action.createCompoundAttack(unitID, enemyArcherIds.get(0));
+		} else if (!enemyBallistaIds.isEmpty()) {
+			return Action.createCompoundAttack(unitID, enemyBallistaIds.get(0));
+		} else if (!enemyTowerIds.isEmpty()) {
+			return Action.createCompoundAttack(unitID, enemyTowerIds.get(0));
+		}
+		return null;
+	}
+
+	/**
+	 * finds the next move of a unit towards its rally point. A unit stops rallying
+	 * once it is at the rally point, cannot reach it, or the next cell is taken by
+	 * one of our units that has already stopped, so the group gathers around the
+	 * rally point instead of queueing for the same tile.
+	 *
+	 * @return the move, or null if the unit has stopped rallying
+	 */
+	private Action rallyStep(StateView state, int unitID) {
+		UnitView unit = state.getUnit(unitID);
+		int destinationY = unit.getTemplateView().getName().equals("Ballista") ? ballistaRallyY : rallyY;
+		FlowField field = flowFields.getField(rallyX, destinationY);
+
+		Direction direction = field.getDirection(unit.getXPosition(), unit.getYPosition());
+		if (direction == null) {
+			rallyingIds.remove(unitID);
+			return null;
+		}
+
+		Integer blockerID = state.unitAt(unit.getXPosition() + direction.xComponent(),
+				unit.getYPosition() + direction.yComponent());
+		if (blockerID != null && myUnitIDs.contains(blockerID) && !rallyingIds.contains(blockerID)) {
+			rallyingIds.remove(unitID);
+			return null;
+		}
+
+		return Action.createPrimitiveMove(unitID, direction);
+	}
+
 }
\ No newline at end of file
@@ -0,0 +1,408 @@
+package edu.cwru.sepia.agent;
+
+import java.util.BitSet;
+
+/**
+ * Anytime Repairing A* (ARA*) over a GridMap with a time budget for every call
+ * to findPath. The first pass is a weighted A* that inflates the heuristic by
+ * epsilon, which finds a path that is at most epsilon times longer than the
+ * shortest one after expanding far fewer cells. Every later pass lowers epsilon
+ * and only re-expands the cells whose cost improved in the pass before, until
+ * epsilon reaches 1 and the path is the shortest one.
+ *
+ * The search runs backward from the ring of cells around the goal, so g is the
+ * number of moves from a cell to the goal and stays correct while the footman
+ * walks along the path. When the budget runs out the search stops where it is
+ * and the next call picks up from there, so a single call never takes much
+ * longer than the budget.
+ *
+ * The cells that changed since the last call are read from the map's change
+ * log instead of starting over, so an enemy that moves every turn does not
+ * throw away a pass that takes longer than one budget. A blocked cell drops
+ * the cost of every cell whose path to the goal went through it, and the cells
+ * around a blocked or freed cell are opened again so the pass finds the way
+ * around or through it. Only when the log no longer holds every change since
+ * the last call does the search start over.
+ */
+public class AnytimePlanner implements PathPlanner {
+	private static final int INFINITY = Integer.MAX_VALUE / 4;
+
+	// epsilon is kept in tenths so the keys stay integers
+	private static final int INITIAL_EPSILON = 30;
+	private static final int EPSILON_STEP = 5;
+	private static final int FINAL_EPSILON = 10;
+
+	// how many cells are expanded between checks of the clock
+	private static final int CLOCK_INTERVAL = 32;
+
+	private final int size;
+	private final long budget;
+
+	// cost from each cell to the ring around the goal and the neighbor the cost
+	// goes through
+	private final int[] g;
+	private final int[] next;
+	private final int[] stamp;
+	private int searchID = 0;
+
+	private final IndexedMinHeap open;
+	private final BitSet closed;
+
+	// cells whose cost improved after they were expanded in the current pass
+	private final BitSet inconsistent;
+	private final int[] inconsistentCells;
+	private int inconsistentCount;
+
+	// scratch space for re-keying the open set and for the cells dropped by a
+	// change to the map
+	private final int[] queued;
+
+	// the query the search is for
+	private GridMap map;
+	private int goal = -1;
+	private int start = -1;
+	private int changesSeen;
+
+	private int epsilon;
+	private boolean passDone;
+
+	// epsilon of the last pass that finished, or 0 if none has
+	private int finishedEpsilon;
+	private boolean searching;
+
+	private int expanded = 0;
+
+	/**
+	 * @param size the number of cells in the map
+	 * @param budget the most time a call to findPath should take in nanoseconds, or
+	 *            0 for no limit
+	 */
+	public AnytimePlanner(int size, long budget) {
+		this.size = size;
+		this.budget = budget;
+		g = new int[size];
+		next = new int[size];
+		stamp = new int[size];
+		open = new IndexedMinHeap(size);
+		closed = new BitSet(size);
+		inconsistent = new BitSet(size);
+		inconsistentCells = new int[size];
+		queued = new int[size];
+	}
+
+	@Override
+	public int getExpanded() {
+		return expanded;
+	}
+
+	@Override
+	public int getRepaired() {
+		return 0;
+	}
+
+	/**
+	 * @return true if the last call to findPath ran out of time before it was done,
+	 *         either because no path has been found yet or because the path it
+	 *         returned can still be improved
+	 */
+	public boolean isSearching() {
+		return searching;
+	}
+
+	/**
+	 * @return the bound on how many times longer than the shortest path the path
+	 *         returned by the last call to findPath can be, or infinity if the
+	 *         first pass has not finished yet
+	 */
+	public double getEpsilon() {
+		if (finishedEpsilon == 0) {
+			return Double.POSITIVE_INFINITY;
+		}
+		return finishedEpsilon / 10.0;
+	}
+
+	/**
+	 * @return the best path found so far from the start to the ring around the
+	 *         goal, or null if there is none or none has been found yet (see
+	 *         isSearching)
+	 */
+	@Override
+	public int[] findPath(GridMap map, int start, int goal) {
+		if (map.size() != size) {
+			throw new IllegalArgumentException("Map does not match the size of the planner");
+		}
+
+		long deadline = System.nanoTime() + budget;
+		expanded = 0;
+
+		if (map != this.map || goal != this.goal || changesSeen < map.getFirstLoggedChange()) {
+			initialize(map, start, goal);
+		} else {
+			if (map.getChangeCount() != changesSeen) {
+				repairChanges();
+			}
+			if (start != this.start) {
+				// the heuristic is the distance to the start, so every key has changed
+				this.start = start;
+				passDone = false;
+				rekeyOpenSet();
+			}
+		}
+
+		searching = !improvePath(deadline);
+		if (getG(start) >= INFINITY) {
+			return null;
+		}
+		return extractPath();
+	}
+
+	private void initialize(GridMap map, int start, int goal) {
+		this.map = map;
+		this.goal = goal;
+		this.start = start;
+		changesSeen = map.getChangeCount();
+
+		searchID++;
+		if (searchID == 0) {
+			// the stamps wrapped around so every stale entry has to be cleared
+			for (int i = 0; i < size; i++) {
+				stamp[i] = 0;
+			}
+			searchID = 1;
+		}
+
+		open.clear();
+		closed.clear();
+		clearInconsistent();
+		epsilon = INITIAL_EPSILON;
+		finishedEpsilon = 0;
+		passDone = false;
+
+		int xExtent = map.getXExtent();
+		for (int free = map.freeNeighbors(goal); free != 0; free &= free - 1) {
+			int i = Integer.numberOfTrailingZeros(free);
+			int ring = goal + GridSearch.DY[i] * xExtent + GridSearch.DX[i];
+			setG(ring, 0, -1);
+			open.update(ring, calculateKey(ring));
+		}
+	}
+
+	/**
+	 * runs passes of the search, lowering epsilon after each one, until the path
+	 * is the shortest one or the deadline passes
+	 * @return true if there is nothing left to improve
+	 */
+	private boolean improvePath(long deadline) {
+		while (true) {
+			if (!passDone) {
+				if (!runPass(deadline)) {
+					return false;
+				}
+				passDone = true;
+				finishedEpsilon = epsilon;
+			}
+
+			if (epsilon == FINAL_EPSILON || getG(start) >= INFINITY) {
+				return true;
+			}
+			// the cells that improved during the last pass are searched again with the
+			// smaller epsilon
+			epsilon = Math.max(FINAL_EPSILON, epsilon - EPSILON_STEP);
+			for (int i = 0; i < inconsistentCount; i++) {
+				// a cell dropped by a change to the map since it was marked has no cost
+				if (getG(inconsistentCells[i]) < INFINITY) {
+					open.update(inconsistentCells[i], 0);
+				}
+			}
+			clearInconsistent();
+			closed.clear();
+			rekeyOpenSet();
+			passDone = false;
+		}
+	}
+
+	/**
+	 * expands cells until the start's cost is within epsilon of the shortest path
+	 * @return false if the deadline passed first
+	 */
+	private boolean runPass(long deadline) {
+		int xExtent = map.getXExtent();
+		while (!open.isEmpty() && (long) getG(start) * 10 > open.peekKey() >>> 32) {
+			if (budget > 0 && expanded % CLOCK_INTERVAL == 0 && expanded > 0 && System.nanoTime() >= deadline) {
+				return false;
+			}
+
+			int cell = open.poll();
+			int cellG = g[cell];
+			closed.set(cell);
+			expanded++;
+
+			for (int free = map.freeNeighbors(cell); free != 0; free &= free - 1) {
+				int i = Integer.numberOfTrailingZeros(free);
+				int neighbor = cell + GridSearch.DY[i] * xExtent + GridSearch.DX[i];
+				if (neighbor == goal || getG(neighbor) <= cellG + 1) {
+					continue;
+				}
+
+				setG(neighbor, cellG + 1, cell);
+				if (!closed.get(neighbor)) {
+					open.update(neighbor, calculateKey(neighbor));
+				} else if (!inconsistent.get(neighbor)) {
+					inconsistent.set(neighbor);
+					inconsistentCells[inconsistentCount++] = neighbor;
+				}
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * takes the cells that changed since the last call into the search, the pass
+	 * is run again since the open set has changed
+	 */
+	private void repairChanges() {
+		int changeCount = map.getChangeCount();
+		for (int i = changesSeen; i < changeCount; i++) {
+			int cell = map.getChange(i);
+			if (cell == goal) {
+				continue;
+			}
+
+			if (map.isBlocked(cell)) {
+				dropPathsThrough(cell);
+			} else {
+				if (map.chebyshev(cell, goal) == 1 && getG(cell) > 0) {
+					// a cell of the ring around the goal was freed
+					setG(cell, 0, -1);
+				}
+				reopen(cell);
+				reopenNeighbors(cell);
+			}
+		}
+		changesSeen = changeCount;
+		passDone = false;
+	}
+
+	/**
+	 * drops the cost of the cell and of every cell whose next links lead through
+	 * it, and opens the cells around them that still have a cost
+	 */
+	private void dropPathsThrough(int blocked) {
+		if (getG(blocked) >= INFINITY) {
+			return;
+		}
+
+		// the dropped cells are kept in queued, in the order they were dropped
+		int head = 0;
+		int tail = 0;
+		dropCell(blocked);
+		queued[tail++] = blocked;
+		while (head < tail) {
+			int cell = queued[head++];
+			int x = map.getX(cell);
+			int y = map.getY(cell);
+			for (int i = 0; i < 8; i++) {
+				int nx = x + GridSearch.DX[i];
+				int ny = y + GridSearch.DY[i];
+				if (!map.inBounds(nx, ny)) {
+					continue;
+				}
+				int neighbor = map.index(nx, ny);
+				if (getG(neighbor) < INFINITY && next[neighbor] == cell) {
+					dropCell(neighbor);
+					queued[tail++] = neighbor;
+				}
+			}
+		}
+
+		for (int i = 0; i < tail; i++) {
+			reopenNeighbors(queued[i]);
+		}
+	}
+
+	private void dropCell(int cell) {
+		stamp[cell] = 0;
+		closed.clear(cell);
+		if (open.contains(cell)) {
+			open.remove(cell);
+		}
+	}
+
+	private void reopenNeighbors(int cell) {
+		int x = map.getX(cell);
+		int y = map.getY(cell);
+		for (int i = 0; i < 8; i++) {
+			int nx = x + GridSearch.DX[i];
+			int ny = y + GridSearch.DY[i];
+			if (map.inBounds(nx, ny)) {
+				reopen(map.index(nx, ny));
+			}
+		}
+	}
+
+	/**
+	 * puts a cell that has a cost back in the open set so its neighbors are
+	 * looked at again
+	 */
+	private void reopen(int cell) {
+		if (getG(cell) < INFINITY && !map.isBlocked(cell)) {
+			closed.clear(cell);
+			open.update(cell, calculateKey(cell));
+		}
+	}
+
+	/**
+	 * follows the cells' next links from the start, each step lowers g so the walk
+	 * always ends on the ring around the goal, where the links stop
+	 */
+	private int[] extractPath() {
+		int length = 0;
+		for (int cell = start; next[cell] != -1; cell = next[cell]) {
+			length++;
+		}
+
+		int[] path = new int[length];
+		int cell = start;
+		for (int i = 0; i < length; i++) {
+			cell = next[cell];
+			path[i] = cell;
+		}
+		return path;
+	}
+
+	private void rekeyOpenSet() {
+		int count = open.size();
+		for (int i = 0; i < count; i++) {
+			queued[i] = open.get(i);
+		}
+		open.clear();
+		for (int i = 0; i < count; i++) {
+			open.update(queued[i], calculateKey(queued[i]));
+		}
+	}
+
+	private void clearInconsistent() {
+		for (int i = 0; i < inconsistentCount; i++) {
+			inconsistent.clear(inconsistentCells[i]);
+		}
+		inconsistentCount = 0;
+	}
+
+	/**
+	 * f = g + epsilon * h in tenths of a move, with h in the low bits to break ties
+	 */
+	private long calculateKey(int cell) {
+		int h = map.chebyshev(cell, start);
+		return ((long) (10 * g[cell] + epsilon * h) << 32) | h;
+	}
+
+	private int getG(int cell) {
+		return stamp[cell] == searchID ? g[cell] : INFINITY;
+	}
+
+	private void setG(int cell, int cost, int through) {
+		stamp[cell] = searchID;
+		g[cell] = cost;
+		next[cell] = through;
+	}
+}
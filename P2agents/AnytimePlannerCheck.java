@@ -0,0 +1,139 @@
+package edu.cwru.sepia.agent;
+
+import java.util.Random;
+
+/**
+ * Checks that the anytime planner gets the footman to the townhall while the
+ * enemy footman moves on every turn and the budget of a turn is too small for
+ * one pass of the search, run without starting Sepia. The footman walks the
+ * path it is given one cell a turn on a large generated maze and the enemy
+ * walks at random around where the footman started.
+ *
+ * For each maze it prints the cells expanded in the first turn and in a whole
+ * search without a budget, the turn the first path was returned on, the turn the footman
+ * reached the townhall on or -1 if it did not, the length of the shortest path
+ * and the number of paths that went through a blocked cell, which must be 0.
+ *
+ * Usage: java edu.cwru.sepia.agent.AnytimePlannerCheck [budget in nanoseconds]
+ */
+public class AnytimePlannerCheck {
+	private static final int SIZE = 1024;
+	private static final double[] DENSITIES = { 0.1, 0.3 };
+	private static final int SEEDS = 2;
+	private static final long BUDGET = 50000L;
+
+	// the enemy starts this many cells or less from the footman in each direction
+	private static final int ENEMY_RANGE = 8;
+
+	public static void main(String[] args) {
+		long budget = args.length > 0 ? Long.parseLong(args[0]) : BUDGET;
+
+		System.out.println(String.format("%-16s %14s %14s %12s %12s %10s %10s", "maze", "first turn", "no budget",
+				"first path", "arrived", "shortest", "invalid"));
+		for (double density : DENSITIES) {
+			for (int seed = 0; seed < SEEDS; seed++) {
+				run(PathBenchmark.generateMaze(SIZE, density, seed), budget, seed);
+			}
+		}
+	}
+
+	private static void run(PathBenchmark.Scenario scenario, long budget, long seed) {
+		GridMap map = scenario.map;
+		int footman = scenario.starts[0];
+		int goal = scenario.goal;
+
+		int[] shortest = new AstarPlanner(map.size()).findPath(map, footman, goal);
+		AnytimePlanner unbounded = new AnytimePlanner(map.size(), 0);
+		unbounded.findPath(map, footman, goal);
+		int unboundedExpanded = unbounded.getExpanded();
+
+		Random random = new Random(seed);
+		int enemy = placeEnemy(map, footman, random);
+		map.setOccupied(map.getX(enemy), map.getY(enemy), true);
+
+		AnytimePlanner planner = new AnytimePlanner(map.size(), budget);
+		int firstTurn = -1;
+		int firstPath = -1;
+		int arrived = -1;
+		int invalid = 0;
+		int turns = 4 * shortest.length + 1000;
+		for (int turn = 0; turn < turns && arrived == -1; turn++) {
+			enemy = moveEnemy(map, enemy, footman, random);
+
+			int[] path = planner.findPath(map, footman, goal);
+			if (turn == 0) {
+				firstTurn = planner.getExpanded();
+			}
+			if (path == null) {
+				continue;
+			}
+			if (firstPath == -1) {
+				firstPath = turn;
+			}
+
+			int cell = footman;
+			for (int next : path) {
+				if (map.isBlocked(next) || map.chebyshev(cell, next) != 1) {
+					invalid++;
+					break;
+				}
+				cell = next;
+			}
+
+			if (path.length > 0 && !map.isBlocked(path[0])) {
+				footman = path[0];
+			}
+			if (map.chebyshev(footman, goal) == 1) {
+				arrived = turn;
+			}
+		}
+		map.setOccupied(map.getX(enemy), map.getY(enemy), false);
+
+		System.out.println(String.format("%-16s %14d %14d %12d %12d %10d %10d", scenario.name, firstTurn, unboundedExpanded,
+				firstPath, arrived, shortest.length, invalid));
+	}
+
+	/**
+	 * @return a free cell near the footman
+	 */
+	private static int placeEnemy(GridMap map, int footman, Random random) {
+		while (true) {
+			int x = map.getX(footman) + random.nextInt(2 * ENEMY_RANGE + 1) - ENEMY_RANGE;
+			int y = map.getY(footman) + random.nextInt(2 * ENEMY_RANGE + 1) - ENEMY_RANGE;
+			if (!map.isBlocked(x, y) && map.index(x, y) != footman) {
+				return map.index(x, y);
+			}
+		}
+	}
+
+	/**
+	 * moves the enemy to a random free neighbor that is not the footman's cell,
+	 * or leaves it where it is if there is none
+	 * @return the enemy's cell
+	 */
+	private static int moveEnemy(GridMap map, int enemy, int footman, Random random) {
+		int x = map.getX(enemy);
+		int y = map.getY(enemy);
+		int free = map.freeNeighbors(enemy);
+		if (free == 0) {
+			return enemy;
+		}
+		int[] choices = new int[8];
+		int count = 0;
+		for (; free != 0; free &= free - 1) {
+			int i = Integer.numberOfTrailingZeros(free);
+			int cell = map.index(x + GridSearch.DX[i], y + GridSearch.DY[i]);
+			if (cell != footman) {
+				choices[count++] = cell;
+			}
+		}
+		if (count == 0) {
+			return enemy;
+		}
+
+		int next = choices[random.nextInt(count)];
+		map.setOccupied(x, y, false);
+		map.setOccupied(map.getX(next), map.getY(next), true);
+		return next;
+	}
+}
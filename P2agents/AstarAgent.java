@@ -1,14 +1,14 @@
 package edu.cwru.sepia.agent;
 
+import java.io.FileWriter;
+import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.io.PrintWriter;
 import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
-import java.util.Stack;
 
 import edu.cwru.sepia.action.Action;
 import edu.cwru.sepia.environment.model.history.History;
@@ -32,12 +32,89 @@ public class AstarAgent extends Agent {
 		}
 	}
 
-	Stack<MapLocation> path;
+	GridPath path;
 	int footmanID, townhallID, enemyFootmanID;
-	MapLocation nextLoc;
+
+	// the cell the footman is moving to, or -1 before its first move
+	int nextCell = -1;
+
+	// every footman of the player, only the cooperative planner moves more than one
+	private List<Integer> footmanIDs;
+
+	// which planner AstarSearch uses, set by the first agent argument
+	private String plannerName = "astar";
+
+	// width of the clusters used by the hierarchical planner, set by "cluster=<n>"
+	private int clusterSize = 8;
+
+	// most time the anytime planner may spend in one turn, set by "budget=<nsecs>"
+	private long planBudget = 1000000;
+
+	// turns each footman plans ahead with the cooperative planner and turns the
+	// enemy footman is predicted ahead by the predictive planner, set by "window=<n>"
+	private int window = 16;
+	private CooperativePlanner cooperativePlanner;
+
+	// reused by every call to AstarSearch
+	private PathPlanner planner;
+
+	// farthest a local detour around the enemy footman may go before the path is
+	// planned again from scratch, 0 to always plan from scratch, set by "repair=<n>"
+	private int repairRadius = 0;
+	private PathRepairer repairer;
+	private int repairsTried = 0;
+	private int repairsDone = 0;
+
+	// straighten paths and walk each straight segment with one compound move, set
+	// by "smooth=true"
+	private boolean smoothPaths = false;
+	private int lastFootmanCell = -1;
+	private int totalMoveActions = 0;
+
+	// optional second planner run on every query of the first one so their
+	// search times can be compared, set by "compare=<planner>"
+	private String comparePlannerName;
+	private PathPlanner comparePlanner;
+
+	// the obstacle bitboard is built once in initialStep and kept between calls to
+	// AstarSearch so only the enemy footman has to be moved on it, which also lets
+	// incremental planners repair just those cells
+	private GridMap map;
+	private MapLocation lastEnemyFootmanLoc;
+
+	// the enemy footman's cell on the last turns, oldest first, which the
+	// predictive planner extrapolates
+	private final int[] enemyTrack = new int[3];
+	private int enemyTrackCount = 0;
+	private int lastTrackedTurn = -1;
 
 	private long totalPlanTime = 0; // nsecs
+	private long turnPlanTime = 0; // nsecs, initialStep shares the first turn with middleStep
+	private long maxTurnPlanTime = 0; // nsecs
 	private long totalExecutionTime = 0; // nsecs
+	private long totalExpanded = 0;
+	private long totalRepaired = 0;
+	private int totalReplans = 0;
+	private long replanExpanded = 0;
+	private long replanRepaired = 0;
+
+	// time spent inside the planners alone, without building the GridPath
+	private long totalSearchTime = 0; // nsecs
+	private long compareSearchTime = 0; // nsecs
+	private long compareExpanded = 0;
+
+	// planning time of the single footmen in the cooperative planner's batches
+	private long totalUnitPlans = 0;
+	private long totalUnitPlanTime = 0; // nsecs
+	private long maxUnitPlanTime = 0; // nsecs
+
+	// distributions of the planning time of the turns that planned, the execution
+	// time of every turn and the length of every path found, written to statsFile
+	// by terminalStep, set by "stats=<file>"
+	private final LogLinearHistogram turnPlanTimes = new LogLinearHistogram(); // nsecs
+	private final LogLinearHistogram turnExecutionTimes = new LogLinearHistogram(); // nsecs
+	private final LogLinearHistogram pathLengths = new LogLinearHistogram();
+	private String statsFile = "astar_stats.csv";
 
 	public AstarAgent(int playernum) {
 		super(playernum);
@@ -45,6 +122,54 @@ public class AstarAgent extends Agent {
 		System.out.println("Constructed AstarAgent");
 	}
 
+	/**
+	 * The first argument in the config file selects the planner: "astar" (the
+	 * default), "jps" for Jump Point Search, "dstarlite" for incremental D* Lite
+	 * replanning, "field" to replan from a precomputed goal distance field, "hpa"
+	 * for hierarchical pathfinding, "bidirectional" for bidirectional A*,
+	 * "anytime" for ARA*, which spends a fixed budget per turn and improves its
+	 * path over later turns, or "predictive" for A* over (cell, turn) that avoids
+	 * where the enemy footman is expected to move. "cooperative" moves every
+	 * footman of the player together with windowed cooperative A*. The arguments
+	 * after it are options of the form key=value: cluster=8 sets the cluster width
+	 * used by "hpa", budget=1000000 sets the nanoseconds per turn used by
+	 * "anytime", window=16 sets the turns planned ahead by "cooperative" and
+	 * "predictive", repair=4 splices detours of up to 4 moves into the path when
+	 * the enemy footman steps onto it, smooth=true straightens paths and walks
+	 * them with compound moves, compare=astar also runs a second planner on every
+	 * query and prints both search times at the end and stats=astar_stats.csv
+	 * sets the file the per-turn statistics are written to, or turns them off
+	 * when it is empty.
+	 */
+	public AstarAgent(int playernum, String[] args) {
+		this(playernum);
+
+		if (args.length > 0) {
+			plannerName = args[0].toLowerCase();
+		}
+		for (int i = 1; i < args.length; i++) {
+			if (args[i].startsWith("cluster=")) {
+				clusterSize = Integer.parseInt(args[i].substring("cluster=".length()));
+			} else if (args[i].startsWith("budget=")) {
+				planBudget = Long.parseLong(args[i].substring("budget=".length()));
+			} else if (args[i].startsWith("window=")) {
+				window = Integer.parseInt(args[i].substring("window=".length()));
+			} else if (args[i].startsWith("repair=")) {
+				repairRadius = Integer.parseInt(args[i].substring("repair=".length()));
+			} else if (args[i].startsWith("smooth=")) {
+				smoothPaths = Boolean.parseBoolean(args[i].substring("smooth=".length()));
+			} else if (args[i].startsWith("stats=")) {
+				statsFile = args[i].substring("stats=".length());
+			} else if (args[i].startsWith("compare=")) {
+				comparePlannerName = args[i].substring("compare=".length()).toLowerCase();
+			} else {
+				System.err.println("Unknown option " + args[i]);
+			}
+		}
+
+		System.out.println("Using planner " + plannerName);
+	}
+
 	@Override
 	public Map<Integer, Action> initialStep(State.StateView newstate, History.HistoryView statehistory) {
 		// get the footman location
@@ -63,6 +188,13 @@ public class AstarAgent extends Agent {
 			return null;
 		}
 
+		footmanIDs = new ArrayList<Integer>();
+		for (Integer unitID : unitIDs) {
+			if (newstate.getUnit(unitID).getTemplateView().getName().equals("Footman")) {
+				footmanIDs.add(unitID);
+			}
+		}
+
 		// find the enemy playernum
 		Integer[] playerNums = newstate.getPlayerNumbers();
 		int enemyPlayerNum = -1;
@@ -106,47 +238,112 @@ public class AstarAgent extends Agent {
 		}
 
 		long startTime = System.nanoTime();
+		map = buildObstacleMap(newstate);
+		if (isCooperative()) {
+			// the footmen are planned together every turn in middleStep
+			totalPlanTime += System.nanoTime() - startTime;
+			return middleStep(newstate, statehistory);
+		}
+		trackEnemyFootman(newstate);
 		path = findPath(newstate);
-		totalPlanTime += System.nanoTime() - startTime;
+		turnPlanTime = System.nanoTime() - startTime;
+		totalPlanTime += turnPlanTime;
 
 		return middleStep(newstate, statehistory);
 	}
 
 	@Override
 	public Map<Integer, Action> middleStep(State.StateView newstate, History.HistoryView statehistory) {
+		if (isCooperative()) {
+			return cooperativeStep(newstate, statehistory);
+		}
+
 		long startTime = System.nanoTime();
 		long planTime = 0;
 
 		Map<Integer, Action> actions = new HashMap<Integer, Action>();
 
+		trackEnemyFootman(newstate);
 		if (shouldReplanPath(newstate, statehistory, path)) {
 			long planStartTime = System.nanoTime();
-			path = findPath(newstate);
+			GridPath repaired = repairPath(newstate);
+			path = repaired != null ? repaired : findPath(newstate);
 			planTime = System.nanoTime() - planStartTime;
+			if (isSmoothing()) {
+				// the footman may be partway to a cell the new path does not go through
+				nextCell = -1;
+			}
+			totalReplans++;
 			totalPlanTime += planTime;
+			turnPlanTime += planTime;
 		}
 
 		Unit.UnitView footmanUnit = newstate.getUnit(footmanID);
 
 		int footmanX = footmanUnit.getXPosition();
 		int footmanY = footmanUnit.getYPosition();
+		int footmanCell = map.index(footmanX, footmanY);
+		boolean isStuck = footmanCell == lastFootmanCell;
+		lastFootmanCell = footmanCell;
+
+		// a compound move walks several cells of the path, which are passed once the
+		// footman has stood on them
+		if (isSmoothing()) {
+			path.skipPast(footmanCell);
+		}
+
+		// the hierarchical planner only returns the path up to the next cluster, so
+		// the next leg is planned once the footman reaches the end of the current one.
+		// the anytime planner keeps searching on later turns until its path is the
+		// shortest one, which also covers the turns it has no path yet
+		boolean atNextLoc = nextCell == -1 || footmanCell == nextCell;
+		if (turnPlanTime == 0 && atNextLoc
+				&& ((path.isEmpty() && !isNextToTownhall(newstate, footmanX, footmanY)) || isImprovingPath())) {
+			long planStartTime = System.nanoTime();
+			path = findPath(newstate);
+			long legTime = System.nanoTime() - planStartTime;
+			planTime += legTime;
+			totalPlanTime += legTime;
+			turnPlanTime += legTime;
+		}
+
+		recordTurnPlanTime(turnPlanTime);
+		turnPlanTime = 0;
 
-		if (!path.empty() && (nextLoc == null || (footmanX == nextLoc.x && footmanY == nextLoc.y))) {
+		if (!path.isEmpty() && atNextLoc) {
 
-			// stat moving to the next step in the path
-			nextLoc = path.pop();
+			// stat moving to the next step in the path, or to the end of the straight
+			// run the path takes from here
+			nextCell = isSmoothing() ? path.get(PathSmoother.straightRun(map, footmanCell, path)) : path.next();
 
-			System.out.println("Moving to (" + nextLoc.x + ", " + nextLoc.y + ")");
+			// the predictive planner repeats a cell on the turns the footman should let
+			// the enemy footman pass
+			if (nextCell == footmanCell) {
+				System.out.println("Waiting at (" + footmanX + ", " + footmanY + ")");
+				recordExecutionTime(System.nanoTime() - startTime - planTime);
+				return actions;
+			}
+
+			System.out.println("Moving to (" + map.getX(nextCell) + ", " + map.getY(nextCell) + ")");
 		}
 
-		if (nextLoc != null && (footmanX != nextLoc.x || footmanY != nextLoc.y)) {
-			int xDiff = nextLoc.x - footmanX;
-			int yDiff = nextLoc.y - footmanY;
+		if (nextCell != -1 && footmanCell != nextCell && map.chebyshev(footmanCell, nextCell) > 1) {
+			// Sepia keeps carrying out a compound move on later turns, so it is only
+			// given again if the footman got stuck on the last turn
+			if (atNextLoc || isStuck) {
+				actions.put(footmanID,
+						Action.createCompoundMove(footmanID, map.getX(nextCell), map.getY(nextCell)));
+				totalMoveActions++;
+			}
+		} else if (nextCell != -1 && footmanCell != nextCell) {
+			int xDiff = map.getX(nextCell) - footmanX;
+			int yDiff = map.getY(nextCell) - footmanY;
 
 			// figure out the direction the footman needs to move in
 			Direction nextDirection = getNextDirection(xDiff, yDiff);
 
 			actions.put(footmanID, Action.createPrimitiveMove(footmanID, nextDirection));
+			totalMoveActions++;
 		} else {
 			Unit.UnitView townhallUnit = newstate.getUnit(townhallID);
 
@@ -156,10 +353,13 @@ public class AstarAgent extends Agent {
 				return actions;
 			}
 
-			if (Math.abs(footmanX - townhallUnit.getXPosition()) > 1
-					|| Math.abs(footmanY - townhallUnit.getYPosition()) > 1) {
-				System.err.println("Invalid plan. Cannot attack townhall");
-				totalExecutionTime += System.nanoTime() - startTime - planTime;
+			if (!isNextToTownhall(newstate, footmanX, footmanY)) {
+				if (isImprovingPath()) {
+					System.out.println("Waiting for a path");
+				} else {
+					System.err.println("Invalid plan. Cannot attack townhall");
+				}
+				recordExecutionTime(System.nanoTime() - startTime - planTime);
 				return actions;
 			} else {
 				System.out.println("Attacking TownHall");
@@ -168,7 +368,83 @@ public class AstarAgent extends Agent {
 			}
 		}
 
-		totalExecutionTime += System.nanoTime() - startTime - planTime;
+		recordExecutionTime(System.nanoTime() - startTime - planTime);
+		return actions;
+	}
+
+	/**
+	 * moves every footman one step along paths planned together in one batch, so
+	 * footmen headed for the townhall do not run into or stall each other. The
+	 * batch is planned again every turn.
+	 */
+	private Map<Integer, Action> cooperativeStep(State.StateView newstate, History.HistoryView statehistory) {
+		long startTime = System.nanoTime();
+
+		Map<Integer, Action> actions = new HashMap<Integer, Action>();
+
+		Unit.UnitView townhallUnit = newstate.getUnit(townhallID);
+
+		// if townhall was destroyed on the last turn
+		if (townhallUnit == null) {
+			terminalStep(newstate, statehistory);
+			return actions;
+		}
+
+		// footmen that have died are left out of the batch
+		List<Unit.UnitView> footmen = new ArrayList<Unit.UnitView>();
+		for (Integer unitID : footmanIDs) {
+			Unit.UnitView footmanUnit = newstate.getUnit(unitID);
+			if (footmanUnit != null) {
+				footmen.add(footmanUnit);
+			}
+		}
+
+		long planStartTime = System.nanoTime();
+		moveEnemyFootman(getEnemyFootmanLocation(newstate));
+		if (cooperativePlanner == null) {
+			cooperativePlanner = new CooperativePlanner(map.size(), window);
+		}
+
+		int goal = map.index(townhallUnit.getXPosition(), townhallUnit.getYPosition());
+		int[] starts = new int[footmen.size()];
+		int[] goals = new int[footmen.size()];
+		for (int i = 0; i < starts.length; i++) {
+			starts[i] = map.index(footmen.get(i).getXPosition(), footmen.get(i).getYPosition());
+			goals[i] = goal;
+		}
+
+		int[][] paths = cooperativePlanner.findPaths(map, starts, goals);
+		long planTime = System.nanoTime() - planStartTime;
+		totalPlanTime += planTime;
+		recordTurnPlanTime(turnPlanTime + planTime);
+		turnPlanTime = 0;
+		totalExpanded += cooperativePlanner.getExpanded();
+		for (int i = 0; i < starts.length; i++) {
+			long unitPlanTime = cooperativePlanner.getUnitPlanTime(i);
+			totalUnitPlans++;
+			totalUnitPlanTime += unitPlanTime;
+			maxUnitPlanTime = Math.max(maxUnitPlanTime, unitPlanTime);
+		}
+
+		for (int i = 0; i < starts.length; i++) {
+			int unitID = footmen.get(i).getID();
+			int footmanX = footmen.get(i).getXPosition();
+			int footmanY = footmen.get(i).getYPosition();
+
+			if (isNextToTownhall(newstate, footmanX, footmanY)) {
+				actions.put(unitID, Action.createPrimitiveAttack(unitID, townhallID));
+			} else if (paths[i] == null) {
+				System.err.println("No available path for footman " + unitID);
+			} else if (paths[i].length > 0 && paths[i][0] != starts[i]) {
+				// the footman waits this turn when its first step is the cell it is on
+				Direction nextDirection = getNextDirection(map.getX(paths[i][0]) - footmanX,
+						map.getY(paths[i][0]) - footmanY);
+				actions.put(unitID, Action.createPrimitiveMove(unitID, nextDirection));
+				totalMoveActions++;
+			}
+		}
+
+		recordExecutionTime(System.nanoTime() - startTime - planTime);
 		return actions;
 	}
 
@@ -176,8 +452,103 @@ public class AstarAgent extends Agent {
 	public void terminalStep(State.StateView newstate, History.HistoryView statehistory) {
 		System.out.println("Total turns: " + newstate.getTurnNumber());
 		System.out.println("Total planning time: " + totalPlanTime / 1e9);
+		System.out.println("Max planning time per turn: " + maxTurnPlanTime / 1e9);
+		System.out.println("Total nodes expanded: " + totalExpanded);
+		System.out.println("Total replans: " + totalReplans);
+		System.out.println("Move actions issued: " + totalMoveActions);
+		System.out.println("Total cells repaired: " + totalRepaired);
+		if (totalUnitPlans > 0) {
+			System.out.println("Footmen planned: " + totalUnitPlans);
+			System.out.println("Average planning time per footman: " + totalUnitPlanTime / 1e9 / totalUnitPlans);
+			System.out.println("Max planning time per footman: " + maxUnitPlanTime / 1e9);
+		}
+		if (planner instanceof AnytimePlanner) {
+			System.out.println("Final path bound: " + ((AnytimePlanner) planner).getEpsilon());
+		}
+		if (comparePlanner != null) {
+			System.out.println("Search time (" + plannerName + "): " + totalSearchTime / 1e9);
+			System.out.println("Search time (" + comparePlannerName + "): " + compareSearchTime / 1e9);
+			System.out.println("Nodes expanded (" + comparePlannerName + "): " + compareExpanded);
+		}
+		if (repairsTried > 0) {
+			System.out.println("Local repairs: " + repairsDone + " of " + repairsTried + " ("
+					+ 100.0 * repairsDone / repairsTried + "%)");
+		}
+		if (totalReplans > 0) {
+			System.out.println("Cells repaired per replan: " + (double) replanRepaired / totalReplans);
+			System.out.println("Nodes re-expanded per replan: " + (double) replanExpanded / totalReplans);
+		}
 		System.out.println("Total execution time: " + totalExecutionTime / 1e9);
 		System.out.println("Total time: " + (totalExecutionTime + totalPlanTime) / 1e9);
+		System.out.println("Planning time per turn p50/p99: " + turnPlanTimes.getValueAtPercentile(50) / 1e9 + " / "
+				+ turnPlanTimes.getValueAtPercentile(99) / 1e9);
+		System.out.println("Execution time per turn p50/p99: " + turnExecutionTimes.getValueAtPercentile(50) / 1e9
+				+ " / " + turnExecutionTimes.getValueAtPercentile(99) / 1e9);
+		writeStats();
+	}
+
+	/**
+	 * @return the time spent planning over the whole episode, in nsecs
+	 */
+	public long getTotalPlanTime() {
+		return totalPlanTime;
+	}
+
+	public int getTotalReplans() {
+		return totalReplans;
+	}
+
+	/**
+	 * writes the histograms and counters to statsFile as CSV, one metric per row
+	 */
+	private void writeStats() {
+		if (statsFile.isEmpty()) {
+			return;
+		}
+
+		PrintWriter out = null;
+		try {
+			out = new PrintWriter(new FileWriter(statsFile));
+			out.println("metric,count,total,min,mean,p50,p90,p99,p99.9,max");
+			writeHistogram(out, "plan_time_ns", turnPlanTimes);
+			writeHistogram(out, "execution_time_ns", turnExecutionTimes);
+			writeHistogram(out, "path_length", pathLengths);
+			out.println("replans," + totalReplans + ",,,,,,,,");
+			out.println("move_actions," + totalMoveActions + ",,,,,,,,");
+			out.println("nodes_expanded," + totalExpanded + ",,,,,,,,");
+			out.println("cells_repaired," + totalRepaired + ",,,,,,,,");
+			out.println("local_repairs_tried," + repairsTried + ",,,,,,,,");
+			out.println("local_repairs_done," + repairsDone + ",,,,,,,,");
+		} catch (IOException e) {
+			System.err.println("Could not write " + statsFile + ": " + e.getMessage());
+		} finally {
+			if (out != null) {
+				out.close();
+			}
+		}
+	}
+
+	private void writeHistogram(PrintWriter out, String name, LogLinearHistogram histogram) {
+		out.println(name + "," + histogram.getCount() + "," + histogram.getTotal() + "," + histogram.getMin() + ","
+				+ histogram.getMean() + "," + histogram.getValueAtPercentile(50) + ","
+				+ histogram.getValueAtPercentile(90) + "," + histogram.getValueAtPercentile(99) + ","
+				+ histogram.getValueAtPercentile(99.9) + "," + histogram.getMax());
+	}
+
+	/**
+	 * adds the planning time of a turn to the statistics, turns without any
+	 * planning are left out of the histogram
+	 */
+	private void recordTurnPlanTime(long planTime) {
+		maxTurnPlanTime = Math.max(maxTurnPlanTime, planTime);
+		if (planTime > 0) {
+			turnPlanTimes.record(planTime);
+		}
+	}
+
+	private void recordExecutionTime(long executionTime) {
+		totalExecutionTime += executionTime;
+		turnExecutionTimes.record(executionTime);
 	}
 
 	@Override
@@ -199,31 +570,66 @@ public class AstarAgent extends Agent {
 	 *
 	 * @param state
 	 * @param history
-	 * @param currentPath the stack containing the moves for the current path
+	 * @param currentPath the moves left on the current path
 	 * @return returns whether a new path should be planned
 	 */
-	private boolean shouldReplanPath(State.StateView state, History.HistoryView history,
-			Stack<MapLocation> currentPath) {
+	private boolean shouldReplanPath(State.StateView state, History.HistoryView history, GridPath currentPath) {
 		//if an enemy footman exists
 		if (enemyFootmanID != -1) {
+			// the predictive planner timed the path around the enemy, so it only has to
+			// replan when the enemy is now expected to get in the way of the next moves
+			if (planner instanceof PredictivePlanner) {
+				((PredictivePlanner) planner).setEnemyTrack(enemyTrack, enemyTrackCount);
+				return ((PredictivePlanner) planner).isBlocked(map, currentPath, 6);
+			}
+
 			Unit.UnitView enemyUnit = state.getUnit(enemyFootmanID);
-			MapLocation enemyLocation = new MapLocation(enemyUnit.getXPosition(), enemyUnit.getYPosition(), null, 0);
-
-			//the next position to be popped from the stack
-			MapLocation next;
-			if (!currentPath.isEmpty()) {
-				//check up to 5 moves ahead if the enemy is in the path. If so, the path will be replanned
-				for (int i = 0; i <= Math.min(5, currentPath.size() - 1); i++) {
-					next = currentPath.elementAt(currentPath.size() - 1 - i);
-					if (next.x == enemyLocation.x && next.y == enemyLocation.y) {
-						return true;
-					}
-				}
+
+			//check up to 5 moves ahead if the enemy is in the path. If so, the path will be replanned
+			int ahead = currentPath.indexOf(map.index(enemyUnit.getXPosition(), enemyUnit.getYPosition()));
+			if (ahead != -1 && ahead <= 5) {
+				return true;
 			}
 		}
 		return false;
 	}
 
+	/**
+	 * @return true if (x, y) is close enough to the townhall to attack it, or the
+	 *         townhall is gone
+	 */
+	private boolean isNextToTownhall(State.StateView state, int x, int y) {
+		Unit.UnitView townhallUnit = state.getUnit(townhallID);
+		if (townhallUnit == null) {
+			return true;
+		}
+		return Math.abs(x - townhallUnit.getXPosition()) <= 1 && Math.abs(y - townhallUnit.getYPosition()) <= 1;
+	}
+
+	/**
+	 * @return true if every footman is moved by the cooperative planner instead of
+	 *         one footman following a path
+	 */
+	private boolean isCooperative() {
+		return plannerName.equals("cooperative");
+	}
+
+	/**
+	 * @return true if paths are straightened and walked with compound moves, which
+	 *         is left off for the predictive planner since its paths are timed
+	 */
+	private boolean isSmoothing() {
+		return smoothPaths && !(planner instanceof PredictivePlanner);
+	}
+
+	/**
+	 * @return true if the planner ran out of its time budget on the last search and
+	 *         has more work to do
+	 */
+	private boolean isImprovingPath() {
+		return planner instanceof AnytimePlanner && ((AnytimePlanner) planner).isSearching();
+	}
+
 	/**
 	 * This method is implemented for you. You should look at it to see examples of
 	 * how to find units and resources in Sepia.
@@ -231,7 +637,7 @@ public class AstarAgent extends Agent {
 	 * @param state
 	 * @return
 	 */
-	private Stack<MapLocation> findPath(State.StateView state) {
+	private GridPath findPath(State.StateView state) {
 		Unit.UnitView townhallUnit = state.getUnit(townhallID);
 		Unit.UnitView footmanUnit = state.getUnit(footmanID);
 
@@ -239,22 +645,109 @@ public class AstarAgent extends Agent {
 
 		MapLocation goalLoc = new MapLocation(townhallUnit.getXPosition(), townhallUnit.getYPosition(), null, 0);
 
-		MapLocation footmanLoc = null;
-		if (enemyFootmanID != -1) {
-			Unit.UnitView enemyFootmanUnit = state.getUnit(enemyFootmanID);
-			footmanLoc = new MapLocation(enemyFootmanUnit.getXPosition(), enemyFootmanUnit.getYPosition(), null, 0);
+		MapLocation footmanLoc = getEnemyFootmanLocation(state);
+
+		return AstarSearch(startLoc, goalLoc, footmanLoc);
+	}
+
+	/**
+	 * tries to get around the enemy footman standing on the path with a short
+	 * detour that rejoins the path past it
+	 *
+	 * @param state
+	 * @return the repaired path, or null if the path has to be planned from scratch
+	 */
+	private GridPath repairPath(State.StateView state) {
+		// the predictive planner's paths are timed, so a detour would throw them off
+		if (repairRadius <= 0 || planner instanceof PredictivePlanner) {
+			return null;
 		}
 
-		// get resource locations
-		List<Integer> resourceIDs = state.getAllResourceIds();
-		Set<MapLocation> resourceLocations = new HashSet<MapLocation>();
-		for (Integer resourceID : resourceIDs) {
-			ResourceNode.ResourceView resource = state.getResourceNode(resourceID);
+		Unit.UnitView footmanUnit = state.getUnit(footmanID);
+		MapLocation enemyFootmanLoc = getEnemyFootmanLocation(state);
+		int blocked = path.indexOf(map.index(enemyFootmanLoc.x, enemyFootmanLoc.y));
+		if (blocked == -1) {
+			return null;
+		}
 
-			resourceLocations.add(new MapLocation(resource.getXPosition(), resource.getYPosition(), null, 0));
+		if (repairer == null) {
+			repairer = new PathRepairer(map.size(), repairRadius);
+		}
+		moveEnemyFootman(enemyFootmanLoc);
+
+		repairsTried++;
+		GridPath repaired = repairer.repair(map, map.index(footmanUnit.getXPosition(), footmanUnit.getYPosition()),
+				path, blocked);
+		totalExpanded += repairer.getExpanded();
+		if (repaired != null) {
+			repairsDone++;
+			pathLengths.record(repaired.size());
 		}
+		return repaired;
+	}
+
+	/**
+	 * adds the enemy footman's cell on this turn to the track, keeping only the
+	 * last few turns
+	 */
+	private void trackEnemyFootman(State.StateView state) {
+		if (enemyFootmanID == -1 || state.getTurnNumber() == lastTrackedTurn) {
+			return;
+		}
+		lastTrackedTurn = state.getTurnNumber();
 
-		return AstarSearch(startLoc, goalLoc, state.getXExtent(), state.getYExtent(), footmanLoc, resourceLocations);
+		if (enemyTrackCount == enemyTrack.length) {
+			System.arraycopy(enemyTrack, 1, enemyTrack, 0, enemyTrackCount - 1);
+			enemyTrackCount--;
+		}
+		Unit.UnitView enemyFootmanUnit = state.getUnit(enemyFootmanID);
+		enemyTrack[enemyTrackCount++] = map.index(enemyFootmanUnit.getXPosition(), enemyFootmanUnit.getYPosition());
+	}
+
+	/**
+	 * @return the location of the enemy footman, or null if there is none
+	 */
+	private MapLocation getEnemyFootmanLocation(State.StateView state) {
+		if (enemyFootmanID == -1) {
+			return null;
+		}
+		Unit.UnitView enemyFootmanUnit = state.getUnit(enemyFootmanID);
+		return new MapLocation(enemyFootmanUnit.getXPosition(), enemyFootmanUnit.getYPosition(), null, 0);
+	}
+
+	/**
+	 * moves the enemy footman on the obstacle map from where it was during the last
+	 * search to where it is now
+	 */
+	private void moveEnemyFootman(MapLocation enemyFootmanLoc) {
+		if (lastEnemyFootmanLoc != null) {
+			map.setOccupied(lastEnemyFootmanLoc.x, lastEnemyFootmanLoc.y, false);
+		}
+		if (enemyFootmanLoc != null) {
+			map.setOccupied(enemyFootmanLoc.x, enemyFootmanLoc.y, true);
+		}
+		lastEnemyFootmanLoc = enemyFootmanLoc;
+	}
+
+	/**
+	 * builds the obstacle bitboard from the resources and the townhall on the map,
+	 * this only needs to be done once since neither of them move
+	 *
+	 * @param state
+	 * @return a map with every resource and the townhall marked as blocked
+	 */
+	private GridMap buildObstacleMap(State.StateView state) {
+		GridMap obstacles = new GridMap(state.getXExtent(), state.getYExtent());
+
+		for (Integer resourceID : state.getAllResourceIds()) {
+			ResourceNode.ResourceView resource = state.getResourceNode(resourceID);
+			obstacles.setBlocked(resource.getXPosition(), resource.getYPosition(), true);
+		}
+
+		Unit.UnitView townhallUnit = state.getUnit(townhallID);
+		obstacles.setBlocked(townhallUnit.getXPosition(), townhallUnit.getYPosition(), true);
+
+		return obstacles;
 	}
 
 	/**
@@ -262,9 +755,9 @@ public class AstarAgent extends Agent {
 	 * will use the A* algorithm to compute the optimum path from the start position
 	 * to a position adjacent to the goal position.
 	 *
-	 * You will return a Stack of positions with the top of the stack being the
-	 * first space to move to and the bottom of the stack being the last space to
-	 * move to. If there is no path to the townhall then return null from the method
+	 * You will return a GridPath of positions with the first cell of the path being
+	 * the first space to move to and the last cell being the last space to move
+	 * to. If there is no path to the townhall then return null from the method
 	 * and the agent will print a message and do nothing. The code to execute the
 	 * plan is provided for you in the middleStep method.
 	 *
@@ -280,171 +773,101 @@ public class AstarAgent extends Agent {
 	 * yExtent would be 3 for this map with valid Y coordinates in the range of [0,
 	 * 2] y=0 is the top most row and y=2 is the bottom most row
 	 *
-	 * resourceLocations would be {(0,1), (1,1), (2,1), (4,1)}
+	 * the resources at {(0,1), (1,1), (2,1), (4,1)} are marked as blocked on the
+	 * map built in initialStep
 	 *
 	 * The path would be
 	 *
 	 * (1,0) (2,0) (3,1) (2,2) (1,2)
 	 *
 	 * Notice how the initial footman position and the townhall position are not
-	 * included in the path stack
+	 * included in the path
 	 *
 	 * @param start
 	 *            Starting position of the footman
 	 * @param goal
 	 *            MapLocation of the townhall
-	 * @param xExtent
-	 *            Width of the map
-	 * @param yExtent
-	 *            Height of the map
-	 * @param resourceLocations
-	 *            Set of positions occupied by resources
-	 * @return Stack of positions with top of stack being first move in plan
+	 * @param enemyFootmanLoc
+	 *            MapLocation of the enemy footman, or null if there is none
+	 * @return the path with the first move in the plan next
 	 */
-	private Stack<MapLocation> AstarSearch(MapLocation start, MapLocation goal, int xExtent, int yExtent,
-			MapLocation enemyFootmanLoc, Set<MapLocation> resourceLocations) {
-
-		boolean pathExists = true;
-		
-		//the stack that initially gets filled
-		Stack<MapLocation> reversePath = new Stack<MapLocation>();
-		//the stack that gets the final path, which is the reversed representation of reversePath
-		Stack<MapLocation> finalPath = new Stack<MapLocation>();
-
-		//a representation of the map that determines which positions cannot be traveled to
-		boolean[][] eliminated = new boolean[xExtent][yExtent];
-		
-		//marks each location with a tree as eliminated
-		for (MapLocation resourceNode : resourceLocations) {
-			eliminated[resourceNode.x][resourceNode.y] = true;
-		}
-		
-		//if an enemy footman exists, its location is also marked as eliminated
-		if(enemyFootmanLoc != null) {
-			eliminated[enemyFootmanLoc.x][enemyFootmanLoc.y] = true;
-		}
-
-		//the list of possible moves from the current state
-		List<MapLocation> moves;
-		//the current state
-		MapLocation current = start;
-
-		//continues to find a path until the footman is 1 unit away from the townhall or it is determined that there is no possible path
-		while ((Math.abs(current.x - goal.x) > 1 || Math.abs(current.y - goal.y) > 1) && pathExists) {
-			moves = possibleMoves(current, eliminated, xExtent, yExtent);
-			
-			//if there are no possible moves that have not been visited
-			if (moves.size() == 0) {
-				//if there is no "came from" parent for the location, then every path has been tested and no path exists
-				if (current.cameFrom == null) {
-					pathExists = false;
-				} 
-				//if there is a parent, backtrack and continue to look for a path
-				else {
-					current = current.cameFrom;
-					reversePath.pop();
-				}
+	private GridPath AstarSearch(MapLocation start, MapLocation goal, MapLocation enemyFootmanLoc) {
+
+		moveEnemyFootman(enemyFootmanLoc);
 
-			} 
-			//otherwise check which is the best possible move at a given state
-			else {
-				current = minimumChebyshev(goal, moves);
-				reversePath.push(current);
-				eliminated[current.x][current.y] = true;
+		//the planner keeps its arrays between searches so replanning does not reallocate them
+		if (planner == null) {
+			planner = createPlanner(plannerName, map.size());
+			if (comparePlannerName != null) {
+				comparePlanner = createPlanner(comparePlannerName, map.size());
 			}
+		}
+
+		int startIdx = map.index(start.x, start.y);
+		int goalIdx = map.index(goal.x, goal.y);
 
+		if (planner instanceof PredictivePlanner) {
+			((PredictivePlanner) planner).setEnemyTrack(enemyTrack, enemyTrackCount);
 		}
-		
-		//since the reversePath stack has the final move at the top, the stack needs to be inverted into a new stack
-		while (reversePath.size() > 0) {
-			finalPath.push(reversePath.pop());
+		if (comparePlanner instanceof PredictivePlanner) {
+			((PredictivePlanner) comparePlanner).setEnemyTrack(enemyTrack, enemyTrackCount);
 		}
 
-		if (pathExists) {
-			// if path exists, return path
-			return finalPath;
-		} else {
+		long searchStartTime = System.nanoTime();
+		int[] cells = planner.findPath(map, startIdx, goalIdx);
+		totalSearchTime += System.nanoTime() - searchStartTime;
+		totalExpanded += planner.getExpanded();
+		totalRepaired += planner.getRepaired();
+		if (path != null) {
+			replanExpanded += planner.getExpanded();
+			replanRepaired += planner.getRepaired();
+		}
+
+		//the comparison planner answers the same query, but its path is thrown away
+		if (comparePlanner != null) {
+			searchStartTime = System.nanoTime();
+			comparePlanner.findPath(map, startIdx, goalIdx);
+			compareSearchTime += System.nanoTime() - searchStartTime;
+			compareExpanded += comparePlanner.getExpanded();
+		}
+
+		if (cells == null && isImprovingPath()) {
+			// the anytime planner ran out of time before it found a path, the footman
+			// keeps its old path, if any, until the search finishes on a later turn
+			System.out.println("No path found yet");
+			return path != null ? path : new GridPath(new int[0]);
+		}
+
+		if (cells == null) {
 			// if no path exists
 			System.err.println("No available path");
 			System.exit(0);
 
 			return null;
 		}
-	}
-
-	/**
-	 * calculates the Chebyshev distance for two points
-	 * @param x1 the x value for the first point
-	 * @param y1 the y value for the first point
-	 * @param x2 the x value for the second point
-	 * @param y2 the y value for the second point
-	 * @return returns the value for the Chebyshev equation
-	 */
-	private int Chebyshev(int x1, int y1, int x2, int y2) {
-		return Math.max(Math.abs(x2 - x1), Math.abs(y2 - y1));
-	}
 
-	/**
-	 * determines the list of possible moves based on the current location and eliminated locations
-	 * @param current the footman's current location
-	 * @param eliminated the map that determines which positions cannot be traveled to
-	 * @param xExtent the length of the map in the x direction
-	 * @param yExtent the length of the map in the y direction
-	 * @return returns the list of possible moves based on the current location and eliminated locations
-	 */
-	private List<MapLocation> possibleMoves(MapLocation current, boolean[][] eliminated, int xExtent, int yExtent) {
-		List<MapLocation> moves = new ArrayList<MapLocation>();
-
-		int x_min = Math.max(current.x - 1, 0);
-		int x_max = Math.min(current.x + 1, xExtent);
-		int y_min = Math.max(current.y - 1, 0);
-		int y_max = Math.min(current.y + 1, yExtent);
-
-		//loops through the positions that are located 1 unit away in the horizontal, vertical, and diagonal directions
-		for (int i = x_min; i <= x_max; i++) {
-			for (int j = y_min; j <= y_max; j++) {
-				//does not consider the current location as a possible move
-				if (i == current.x && j == current.y) {
-					continue;
-				}
-
-				if (!eliminated[i][j]) {
-					moves.add(new MapLocation(i, j, current, 0));
-				}
-			}
+		if (isSmoothing()) {
+			cells = PathSmoother.smooth(map, startIdx, cells);
 		}
-		return moves;
+		pathLengths.record(cells.length);
+
+		// if path exists, return path
+		return new GridPath(cells);
 	}
 
 	/**
-	 * takes a list of possible moves and the goal state and calculates which is the best move option based on the Chebyshev equation
-	 * @param goal the goal state
-	 * @param adjacent the list of possible states for the next move
-	 * @return returns the move with the best heuristic (lowest Chebyshev value)
+	 * creates a planner selected in the config file
+	 * @param name the name of the planner
+	 * @param size the number of cells in the map
+	 * @return the planner used by AstarSearch
 	 */
-	private MapLocation minimumChebyshev(MapLocation goal, List<MapLocation> adjacent) {
-		MapLocation minimum = adjacent.get(0);
-
-		for (MapLocation next : adjacent) {
-			int minimumCheby = Chebyshev(goal.x, goal.y, minimum.x, minimum.y);
-			int nextCheby = Chebyshev(goal.x, goal.y, next.x, next.y);
-			if (minimumCheby > nextCheby)
-				minimum = next;
-			//in the case of tie-breakers, choose the state that will move the footman closer to the goal in the direction that didn't determine the Cheyshev value
-			else if (minimumCheby == nextCheby) {
-				if (next.x == minimum.x) {
-					if (Math.abs(next.y - goal.y) < Math.abs(minimum.y - goal.y)) {
-						minimum = next;
-					}
-				} else {
-					if (Math.abs(next.x - goal.x) < Math.abs(minimum.x - goal.x)) {
-						minimum = next;
-					}
-				}
-			}
+	private PathPlanner createPlanner(String name, int size) {
+		PathPlanner created = PlannerFactory.create(name, size, clusterSize, window, planBudget);
+		if (created == null) {
+			System.err.println("Unknown planner " + name + ", using astar");
+			created = new AstarPlanner(size);
 		}
-
-		return minimum;
+		return created;
 	}
 
 	/**
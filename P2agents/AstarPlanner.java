@@ -0,0 +1,83 @@
+package edu.cwru.sepia.agent;
+
+/**
+ * A* search over a GridMap. The open set is an indexed binary heap keyed by
+ * f = g + h, where h is the Chebyshev distance to the ring of cells around the
+ * goal. Every move costs one turn, so Chebyshev distance is both admissible and
+ * consistent and the first ring cell taken off the heap ends a shortest path.
+ */
+public class AstarPlanner extends GridSearch {
+	static final int UNREACHABLE = -1;
+
+	public AstarPlanner(int size) {
+		super(size);
+	}
+
+	@Override
+	public int[] findPath(GridMap map, int start, int goal) {
+		nextSearch(map);
+
+		int xExtent = map.getXExtent();
+		int goalX = map.getX(goal);
+		int goalY = map.getY(goal);
+
+		visit(start, 0, -1);
+		open.update(start, key(0, estimate(map, start, goal)));
+
+		while (!open.isEmpty()) {
+			int current = open.poll();
+			int cx = current % xExtent;
+			int cy = current / xExtent;
+
+			// reached the ring of cells around the goal
+			if (heuristic(cx, cy, goalX, goalY) == 0 && current != goal) {
+				return reconstructPath(current);
+			}
+
+			closed.set(current);
+			expanded++;
+
+			int nextG = gScore[current] + 1;
+			for (int free = map.freeNeighbors(current); free != 0; free &= free - 1) {
+				int i = Integer.numberOfTrailingZeros(free);
+				int next = (cy + DY[i]) * xExtent + cx + DX[i];
+				if (closed.get(next) || next == goal) {
+					continue;
+				}
+
+				if (!isVisited(next) || nextG < gScore[next]) {
+					int h = estimate(map, next, goal);
+					if (h == UNREACHABLE) {
+						continue;
+					}
+
+					visit(next, nextG, current);
+					open.update(next, key(nextG, h));
+				}
+			}
+		}
+
+		return null;
+	}
+
+	/**
+	 * estimates the number of moves needed to get from the cell to a cell next to
+	 * the goal, the estimate must never overestimate
+	 * @return the estimate, or UNREACHABLE if the goal cannot be reached from the
+	 *         cell
+	 */
+	protected int estimate(GridMap map, int cell, int goal) {
+		return heuristic(map.getX(cell), map.getY(cell), map.getX(goal), map.getY(goal));
+	}
+
+	private int[] reconstructPath(int end) {
+		int length = gScore[end];
+		int[] path = new int[length];
+		int cell = end;
+		for (int i = length - 1; i >= 0; i--) {
+			path[i] = cell;
+			cell = parent[cell];
+		}
+		return path;
+	}
+}
@@ -0,0 +1,210 @@
+package edu.cwru.sepia.agent;
+
+import java.util.BitSet;
+
+/**
+ * Bidirectional A* over a GridMap. One search runs forward from the footman
+ * towards the ring of cells around the goal and the other runs backward from
+ * every free cell of that ring towards the footman, and the side with the
+ * smaller open set is expanded each step. In a maze the two frontiers only have
+ * to cover half of the corridor each, where a single search has to follow every
+ * dead end the corridor passes on the way.
+ *
+ * Whenever a cell has been reached from both sides the length of the path
+ * through it is a candidate for the best path. Both heuristics are consistent,
+ * so the search can stop as soon as the best candidate is no longer than the
+ * smallest f of either open set, since every path not found yet has to pass
+ * through a cell on both frontiers.
+ */
+public class BidirectionalAstarPlanner extends GridSearch {
+	private static final int INFINITY = Integer.MAX_VALUE / 4;
+
+	// the backward search, the forward one uses the arrays of GridSearch
+	private final int[] gScoreBack;
+	private final int[] parentBack;
+	private final int[] stampBack;
+	private final BitSet closedBack;
+	private final IndexedMinHeap openBack;
+
+	private GridMap map;
+	private int startX;
+	private int startY;
+	private int goal;
+	private int goalX;
+	private int goalY;
+
+	// the shortest path found so far and the cell where its two halves meet
+	private int bestLength;
+	private int meet;
+
+	public BidirectionalAstarPlanner(int size) {
+		super(size);
+		gScoreBack = new int[size];
+		parentBack = new int[size];
+		stampBack = new int[size];
+		closedBack = new BitSet(size);
+		openBack = new IndexedMinHeap(size);
+	}
+
+	@Override
+	public int[] findPath(GridMap map, int start, int goal) {
+		nextSearch(map);
+
+		this.map = map;
+		this.goal = goal;
+		startX = map.getX(start);
+		startY = map.getY(start);
+		goalX = map.getX(goal);
+		goalY = map.getY(goal);
+
+		// already next to the goal
+		if (heuristic(startX, startY, goalX, goalY) == 0 && start != goal) {
+			return new int[0];
+		}
+
+		bestLength = INFINITY;
+		meet = -1;
+
+		visit(start, 0, -1);
+		open.update(start, key(0, heuristic(startX, startY, goalX, goalY)));
+
+		// the backward search starts from every free cell around the goal at once
+		int xExtent = map.getXExtent();
+		for (int free = map.freeNeighbors(goal); free != 0; free &= free - 1) {
+			int i = Integer.numberOfTrailingZeros(free);
+			int ring = goal + DY[i] * xExtent + DX[i];
+			visitBack(ring, 0, -1);
+			openBack.update(ring, key(0, chebyshevToStart(ring)));
+			if (ring == start) {
+				offerMeet(ring);
+			}
+		}
+
+		while (!open.isEmpty() && !openBack.isEmpty()) {
+			int lowerBound = (int) Math.max(open.peekKey() >>> 32, openBack.peekKey() >>> 32);
+			if (bestLength <= lowerBound) {
+				break;
+			}
+
+			if (open.size() <= openBack.size()) {
+				expandForward(open.poll());
+			} else {
+				expandBackward(openBack.poll());
+			}
+		}
+
+		if (meet == -1) {
+			return null;
+		}
+		return reconstructPath();
+	}
+
+	@Override
+	protected void nextSearch(GridMap map) {
+		super.nextSearch(map);
+		openBack.clear();
+		closedBack.clear();
+
+		// the forward stamps were just cleared, so the backward ones have to be too
+		if (searchID == 1) {
+			for (int i = 0; i < size; i++) {
+				stampBack[i] = 0;
+			}
+		}
+	}
+
+	private void expandForward(int current) {
+		closed.set(current);
+		expanded++;
+
+		int xExtent = map.getXExtent();
+		int nextG = gScore[current] + 1;
+		for (int free = map.freeNeighbors(current); free != 0; free &= free - 1) {
+			int i = Integer.numberOfTrailingZeros(free);
+			int next = current + DY[i] * xExtent + DX[i];
+			if (closed.get(next) || next == goal) {
+				continue;
+			}
+
+			if (!isVisited(next) || nextG < gScore[next]) {
+				visit(next, nextG, current);
+				open.update(next, key(nextG, heuristic(map.getX(next), map.getY(next), goalX, goalY)));
+				if (isVisitedBack(next)) {
+					offerMeet(next);
+				}
+			}
+		}
+	}
+
+	private void expandBackward(int current) {
+		closedBack.set(current);
+		expanded++;
+
+		int xExtent = map.getXExtent();
+		int nextG = gScoreBack[current] + 1;
+		for (int free = map.freeNeighbors(current); free != 0; free &= free - 1) {
+			int i = Integer.numberOfTrailingZeros(free);
+			int next = current + DY[i] * xExtent + DX[i];
+			if (closedBack.get(next) || next == goal) {
+				continue;
+			}
+
+			if (!isVisitedBack(next) || nextG < gScoreBack[next]) {
+				visitBack(next, nextG, current);
+				openBack.update(next, key(nextG, chebyshevToStart(next)));
+				if (isVisited(next)) {
+					offerMeet(next);
+				}
+			}
+		}
+	}
+
+	/**
+	 * records the path through a cell reached by both searches if it is the
+	 * shortest one so far
+	 */
+	private void offerMeet(int cell) {
+		int length = gScore[cell] + gScoreBack[cell];
+		if (length < bestLength) {
+			bestLength = length;
+			meet = cell;
+		}
+	}
+
+	/**
+	 * joins the forward half of the path up to the meeting cell with the backward
+	 * half from it to the ring around the goal
+	 */
+	private int[] reconstructPath() {
+		int[] path = new int[bestLength];
+
+		int i = gScore[meet];
+		int cell = meet;
+		while (parent[cell] != -1) {
+			path[--i] = cell;
+			cell = parent[cell];
+		}
+
+		i = gScore[meet];
+		cell = meet;
+		while (parentBack[cell] != -1) {
+			cell = parentBack[cell];
+			path[i++] = cell;
+		}
+		return path;
+	}
+
+	private int chebyshevToStart(int cell) {
+		return Math.max(Math.abs(map.getX(cell) - startX), Math.abs(map.getY(cell) - startY));
+	}
+
+	private boolean isVisitedBack(int cell) {
+		return stampBack[cell] == searchID;
+	}
+
+	private void visitBack(int cell, int g, int from) {
+		stampBack[cell] = searchID;
+		gScoreBack[cell] = g;
+		parentBack[cell] = from;
+	}
+}
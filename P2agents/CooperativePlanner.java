@@ -0,0 +1,293 @@
+package edu.cwru.sepia.agent;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Windowed Hierarchical Cooperative A* (WHCA*) for moving many units at once.
+ * The units are planned one after another, and every move a unit plans is
+ * written into a space-time reservation table keyed by (cell, turn). The units
+ * planned later search over (cell, turn) states and treat reserved cells as
+ * blocked on the turns they are reserved, and swapping cells with a unit that
+ * is planned to come the other way is not allowed, so the paths of one batch
+ * never collide.
+ *
+ * Each unit only plans the next few turns (the window) and the rest of the way
+ * is estimated with a distance field from the goal over the static obstacles,
+ * which is exact when nobody is in the way. The batch is planned again every
+ * turn, so the window keeps sliding towards the goal, and the order the units
+ * are planned in is rotated between batches so the same unit is not always the
+ * one that has to make way.
+ *
+ * The number of states a single unit may search is capped, so the cost of a
+ * batch grows linearly with the number of units. A unit that hits the cap
+ * follows the part of the path that got closest to its goal.
+ */
+public class CooperativePlanner {
+	private static final int UNREACHABLE = DistanceFieldPlanner.UNREACHABLE;
+
+	// the states a unit may search per turn of the window
+	private static final int NODES_PER_TURN = 128;
+
+	private final int size;
+	private final int window;
+	private final int maxNodes;
+
+	// the unit that reserved each (cell, turn) of the current batch
+	private final LongIntHashMap reservations;
+
+	// the states of the current unit's search, g is always the turn of the state so
+	// a state is never reached more cheaply after it is first queued
+	private final LongIntHashMap visited;
+	private final int[] nodeCell;
+	private final int[] nodeTime;
+	private final int[] nodeParent;
+	private final IndexedMinHeap open;
+	private int nodeCount;
+
+	// distance fields by goal, for the map and static obstacles they were built for
+	private final Map<Integer, int[]> fields = new HashMap<Integer, int[]>();
+	private final int[] fieldQueue;
+	private GridMap map;
+	private int staticChangeCount;
+
+	private long[] unitPlanTime = new long[0];
+	private int priorityOffset = 0;
+	private int expanded = 0;
+
+	/**
+	 * @param size the number of cells in the map
+	 * @param window the number of turns each unit plans ahead
+	 */
+	public CooperativePlanner(int size, int window) {
+		if (window < 1) {
+			throw new IllegalArgumentException("The window must be at least one turn");
+		}
+
+		this.size = size;
+		this.window = window;
+		fieldQueue = new int[size];
+		maxNodes = NODES_PER_TURN * (window + 1);
+
+		reservations = new LongIntHashMap(64 * (window + 2));
+		visited = new LongIntHashMap(maxNodes);
+		nodeCell = new int[maxNodes];
+		nodeTime = new int[maxNodes];
+		nodeParent = new int[maxNodes];
+		open = new IndexedMinHeap(maxNodes);
+	}
+
+	/**
+	 * @return the number of states expanded by the last call to findPaths, over
+	 *         all units
+	 */
+	public int getExpanded() {
+		return expanded;
+	}
+
+	/**
+	 * @param unit the position of the unit in the arrays passed to findPaths
+	 * @return the time spent planning the unit in the last call to findPaths in
+	 *         nanoseconds
+	 */
+	public long getUnitPlanTime(int unit) {
+		return unitPlanTime[unit];
+	}
+
+	/**
+	 * plans the next turns of every unit so that no two units are in the same cell
+	 * or swap cells on the same turn
+	 *
+	 * @param map the map to search, other units should not be marked on it
+	 * @param starts the cell each unit is standing on
+	 * @param goals the cell each unit is headed for, the unit stops next to it
+	 * @return for each unit the cells it should be in on each of the next turns,
+	 *         a cell repeats when the unit waits, or null if the unit cannot reach
+	 *         its goal at all
+	 */
+	public int[][] findPaths(GridMap map, int[] starts, int[] goals) {
+		if (map.size() != size) {
+			throw new IllegalArgumentException("Map does not match the size of the planner");
+		}
+		if (map != this.map || map.getStaticChangeCount() != staticChangeCount) {
+			this.map = map;
+			staticChangeCount = map.getStaticChangeCount();
+			fields.clear();
+		}
+
+		int units = starts.length;
+		if (unitPlanTime.length < units) {
+			unitPlanTime = new long[units];
+		}
+		expanded = 0;
+
+		// until a unit is planned it is assumed to stay where it is, so the units
+		// planned before it do not walk into it
+		reservations.clear();
+		for (int unit = 0; unit < units; unit++) {
+			reservations.put(spaceTimeKey(starts[unit], 0), unit);
+			reservations.put(spaceTimeKey(starts[unit], 1), unit);
+		}
+
+		int[][] paths = new int[units][];
+		for (int k = 0; k < units; k++) {
+			int unit = (k + priorityOffset) % units;
+			long startTime = System.nanoTime();
+			paths[unit] = planUnit(unit, starts[unit], goals[unit]);
+			unitPlanTime[unit] = System.nanoTime() - startTime;
+		}
+		priorityOffset = units == 0 ? 0 : (priorityOffset + 1) % units;
+
+		return paths;
+	}
+
+	/**
+	 * space-time A* for one unit around the reservations of the units planned
+	 * before it, the unit's own moves are reserved once it is planned
+	 */
+	private int[] planUnit(int unit, int start, int goal) {
+		int[] field = getField(goal);
+		if (field[start] == UNREACHABLE) {
+			hold(unit, start, 0);
+			return null;
+		}
+
+		visited.clear();
+		open.clear();
+		nodeCount = 0;
+
+		int root = addNode(start, 0, -1);
+		open.update(root, GridSearch.key(0, field[start]));
+
+		int xExtent = map.getXExtent();
+		int end = -1;
+		int closest = root;
+		while (!open.isEmpty()) {
+			int node = open.poll();
+			int cell = nodeCell[node];
+			int time = nodeTime[node];
+
+			// next to the goal with nobody coming through later, or as far ahead as
+			// this unit plans
+			if ((field[cell] == 0 && canHold(unit, cell, time)) || time == window) {
+				end = node;
+				break;
+			}
+
+			expanded++;
+			if (field[cell] < field[nodeCell[closest]]) {
+				closest = node;
+			}
+
+			// waiting in place is tried along with the 8 moves
+			int moves = map.freeNeighbors(cell) | 1 << 8;
+			for (; moves != 0; moves &= moves - 1) {
+				int i = Integer.numberOfTrailingZeros(moves);
+				int next = i == 8 ? cell : cell + GridSearch.DY[i] * xExtent + GridSearch.DX[i];
+				if (next == goal || field[next] == UNREACHABLE || !canMove(unit, cell, next, time)) {
+					continue;
+				}
+
+				long key = spaceTimeKey(next, time + 1);
+				if (visited.get(key) != LongIntHashMap.MISSING || nodeCount == maxNodes) {
+					continue;
+				}
+
+				int child = addNode(next, time + 1, node);
+				visited.put(key, child);
+				open.update(child, GridSearch.key(time + 1, field[next]));
+			}
+		}
+
+		if (end == -1) {
+			// the search was cut short, so head for wherever got closest to the goal
+			end = closest;
+		}
+		return reservePath(unit, end);
+	}
+
+	/**
+	 * @return true if the unit can go from cell to next between the turn and the
+	 *         turn after without running into or swapping places with a unit
+	 *         planned before it
+	 */
+	private boolean canMove(int unit, int cell, int next, int time) {
+		int owner = reservations.get(spaceTimeKey(next, time + 1));
+		if (owner != LongIntHashMap.MISSING && owner != unit) {
+			return false;
+		}
+
+		if (next != cell) {
+			int coming = reservations.get(spaceTimeKey(next, time));
+			if (coming != LongIntHashMap.MISSING && coming != unit
+					&& reservations.get(spaceTimeKey(cell, time + 1)) == coming) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @return true if no unit planned before this one passes through the cell from
+	 *         the turn to the end of the window
+	 */
+	private boolean canHold(int unit, int cell, int from) {
+		for (int time = from + 1; time <= window; time++) {
+			int owner = reservations.get(spaceTimeKey(cell, time));
+			if (owner != LongIntHashMap.MISSING && owner != unit) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * reserves every cell of the path ending at the node and keeps the last cell
+	 * reserved for the rest of the window
+	 */
+	private int[] reservePath(int unit, int end) {
+		int length = nodeTime[end];
+		int[] path = new int[length];
+		for (int node = end; nodeParent[node] != -1; node = nodeParent[node]) {
+			path[nodeTime[node] - 1] = nodeCell[node];
+			reservations.put(spaceTimeKey(nodeCell[node], nodeTime[node]), unit);
+		}
+		hold(unit, nodeCell[end], length);
+		return path;
+	}
+
+	/**
+	 * reserves the cell for the unit from the turn to the end of the window,
+	 * except on the turns another unit has already reserved it
+	 */
+	private void hold(int unit, int cell, int from) {
+		for (int time = from; time <= window; time++) {
+			long key = spaceTimeKey(cell, time);
+			if (reservations.get(key) == LongIntHashMap.MISSING) {
+				reservations.put(key, unit);
+			}
+		}
+	}
+
+	private int addNode(int cell, int time, int parent) {
+		int node = nodeCount++;
+		nodeCell[node] = cell;
+		nodeTime[node] = time;
+		nodeParent[node] = parent;
+		return node;
+	}
+
+	private int[] getField(int goal) {
+		int[] field = fields.get(goal);
+		if (field == null) {
+			field = new int[size];
+			DistanceFieldPlanner.fillField(map, goal, field, fieldQueue);
+			fields.put(goal, field);
+		}
+		return field;
+	}
+
+	private static long spaceTimeKey(int cell, int time) {
+		return ((long) time << 32) | cell;
+	}
+}
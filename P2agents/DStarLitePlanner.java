@@ -0,0 +1,231 @@
+package edu.cwru.sepia.agent;
+
+/**
+ * D* Lite over a GridMap. The search runs backwards from the goal so its g and
+ * rhs tables hold the distance from every settled cell to the goal, and they
+ * stay valid while the footman walks towards the goal. When cells of the map
+ * change (the enemy footman moves) only those cells and their neighbors are
+ * repaired and only the cells whose distance actually changed are expanded
+ * again, so the cost of a replan scales with the size of the change instead of
+ * the size of the map.
+ *
+ * The goal cell itself is the root of the search and every free cell next to it
+ * reaches it at no cost, so g is the number of moves needed to get next to the
+ * goal.
+ */
+public class DStarLitePlanner implements PathPlanner {
+	private static final int INFINITY = Integer.MAX_VALUE / 4;
+
+	private final int size;
+
+	private final int[] g;
+	private final int[] rhs;
+	private final IndexedMinHeap open;
+
+	// the map, goal and start the tables were computed for
+	private GridMap map;
+	private int goal = -1;
+	private int lastStart;
+	private int keyModifier;
+
+	// how much of the map's change log has already been repaired
+	private int changesSeen;
+
+	private int expanded = 0;
+	private int repaired = 0;
+
+	public DStarLitePlanner(int size) {
+		this.size = size;
+		g = new int[size];
+		rhs = new int[size];
+		open = new IndexedMinHeap(size);
+	}
+
+	@Override
+	public int getExpanded() {
+		return expanded;
+	}
+
+	@Override
+	public int getRepaired() {
+		return repaired;
+	}
+
+	@Override
+	public int[] findPath(GridMap map, int start, int goal) {
+		if (map.size() != size) {
+			throw new IllegalArgumentException("Map does not match the size of the planner");
+		}
+
+		expanded = 0;
+		repaired = 0;
+
+		if (map != this.map || goal != this.goal || changesSeen < map.getFirstLoggedChange()) {
+			// a new map or goal, or the changes since the last call are no longer all
+			// in the log
+			initialize(map, start, goal);
+		} else {
+			// the start moved, so every key already queued is too small by the distance moved
+			keyModifier += map.chebyshev(lastStart, start);
+			lastStart = start;
+
+			for (int i = changesSeen; i < map.getChangeCount(); i++) {
+				repairCell(map.getChange(i));
+			}
+		}
+		changesSeen = map.getChangeCount();
+
+		computeShortestPath(start);
+
+		if (g[start] >= INFINITY) {
+			return null;
+		}
+		return extractPath(start);
+	}
+
+	private void initialize(GridMap map, int start, int goal) {
+		this.map = map;
+		this.goal = goal;
+		lastStart = start;
+		keyModifier = 0;
+
+		open.clear();
+		for (int i = 0; i < size; i++) {
+			g[i] = INFINITY;
+			rhs[i] = INFINITY;
+		}
+
+		rhs[goal] = 0;
+		open.update(goal, calculateKey(goal, start));
+	}
+
+	/**
+	 * the edges into and out of a changed cell all change cost, so the cell and
+	 * every neighbor have their rhs recalculated
+	 */
+	private void repairCell(int cell) {
+		int x = map.getX(cell);
+		int y = map.getY(cell);
+
+		updateVertex(cell);
+		repaired++;
+		for (int i = 0; i < 8; i++) {
+			int nx = x + GridSearch.DX[i];
+			int ny = y + GridSearch.DY[i];
+			if (map.inBounds(nx, ny)) {
+				updateVertex(map.index(nx, ny));
+				repaired++;
+			}
+		}
+	}
+
+	private void computeShortestPath(int start) {
+		while (!open.isEmpty() && (open.peekKey() < calculateKey(start, start) || rhs[start] != g[start])) {
+			int u = open.peek();
+			long oldKey = open.peekKey();
+			long newKey = calculateKey(u, start);
+
+			if (oldKey < newKey) {
+				// the key was computed before the start moved
+				open.update(u, newKey);
+			} else if (g[u] > rhs[u]) {
+				// the cell got closer to the goal
+				g[u] = rhs[u];
+				open.remove(u);
+				expanded++;
+				updatePredecessors(u);
+			} else {
+				// the cell got further from the goal
+				g[u] = INFINITY;
+				expanded++;
+				updateVertex(u);
+				updatePredecessors(u);
+			}
+		}
+	}
+
+	private void updatePredecessors(int cell) {
+		int x = map.getX(cell);
+		int y = map.getY(cell);
+		for (int i = 0; i < 8; i++) {
+			int nx = x + GridSearch.DX[i];
+			int ny = y + GridSearch.DY[i];
+			if (map.inBounds(nx, ny)) {
+				updateVertex(map.index(nx, ny));
+			}
+		}
+	}
+
+	private void updateVertex(int cell) {
+		if (cell != goal) {
+			rhs[cell] = bestSuccessorCost(cell);
+		}
+
+		if (g[cell] != rhs[cell]) {
+			open.update(cell, calculateKey(cell, lastStart));
+		} else {
+			open.remove(cell);
+		}
+	}
+
+	/**
+	 * @return the cost of the cheapest move out of the cell plus the distance from
+	 *         where that move ends up to the goal
+	 */
+	private int bestSuccessorCost(int cell) {
+		if (map.isBlocked(cell)) {
+			return INFINITY;
+		}
+
+		if (map.chebyshev(cell, goal) == 1) {
+			// arriving next to the goal ends the path
+			return 0;
+		}
+
+		int xExtent = map.getXExtent();
+		int best = INFINITY;
+		for (int free = map.freeNeighbors(cell); free != 0; free &= free - 1) {
+			int i = Integer.numberOfTrailingZeros(free);
+			int next = cell + GridSearch.DY[i] * xExtent + GridSearch.DX[i];
+			if (g[next] + 1 < best) {
+				best = g[next] + 1;
+			}
+		}
+		return best;
+	}
+
+	/**
+	 * walks downhill on g from the start until it is next to the goal
+	 */
+	private int[] extractPath(int start) {
+		int xExtent = map.getXExtent();
+		int[] path = new int[g[start]];
+		int cell = start;
+		for (int i = 0; i < path.length; i++) {
+			int best = -1;
+			for (int free = map.freeNeighbors(cell); free != 0; free &= free - 1) {
+				int j = Integer.numberOfTrailingZeros(free);
+				int next = cell + GridSearch.DY[j] * xExtent + GridSearch.DX[j];
+				if (next != goal && (best == -1 || g[next] < g[best])) {
+					best = next;
+				}
+			}
+			path[i] = best;
+			cell = best;
+		}
+		return path;
+	}
+
+	private long calculateKey(int cell, int start) {
+		int distance = Math.min(g[cell], rhs[cell]);
+		if (distance >= INFINITY) {
+			return ((long) INFINITY << 32) | INFINITY;
+		}
+
+		int h = map.chebyshev(start, cell);
+		if (cell == goal) {
+			h = Math.max(0, h - 1);
+		}
+		return ((long) (distance + h + keyModifier) << 32) | distance;
+	}
+}
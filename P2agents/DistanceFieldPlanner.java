@@ -0,0 +1,140 @@
+package edu.cwru.sepia.agent;
+
+/**
+ * Answers replans from a distance field. The townhall never moves, so a
+ * breadth-first search backwards from the cells around it over the static
+ * obstacles is done once and gives the exact number of moves from every cell to
+ * the goal when no units are in the way.
+ *
+ * A path is then found by walking downhill on the field, which only looks at the
+ * neighbors of the cells on the path. When a unit blocks the way down the search
+ * falls back to A* with the field as its heuristic. Units can only make paths
+ * longer, so the field never overestimates and A* only has to search around the
+ * blocked cell before it is back on the field.
+ */
+public class DistanceFieldPlanner extends AstarPlanner {
+	private final int[] field;
+
+	// the cells fillField has reached and not expanded yet
+	private final int[] queue;
+
+	// the map, goal and static obstacles the field was built for
+	private GridMap map;
+	private int goal = -1;
+	private int staticChangeCount;
+
+	public DistanceFieldPlanner(int size) {
+		super(size);
+		field = new int[size];
+		queue = new int[size];
+	}
+
+	@Override
+	public int[] findPath(GridMap map, int start, int goal) {
+		if (map != this.map || goal != this.goal || map.getStaticChangeCount() != staticChangeCount) {
+			buildField(map, goal);
+		}
+
+		if (field[start] == UNREACHABLE) {
+			expanded = 0;
+			return null;
+		}
+
+		int[] path = descend(map, start, goal);
+		if (path != null) {
+			return path;
+		}
+
+		// a unit is in the way, search around it
+		return super.findPath(map, start, goal);
+	}
+
+	@Override
+	protected int estimate(GridMap map, int cell, int goal) {
+		return field[cell];
+	}
+
+	/**
+	 * follows the field downhill from the start
+	 * @return the path, or null if a unit blocks every way down at some point
+	 */
+	private int[] descend(GridMap map, int start, int goal) {
+		expanded = 0;
+
+		int xExtent = map.getXExtent();
+		int[] path = new int[field[start]];
+		int cell = start;
+		for (int i = 0; i < path.length; i++) {
+			int next = -1;
+			for (int free = map.freeNeighbors(cell); free != 0 && next == -1; free &= free - 1) {
+				int j = Integer.numberOfTrailingZeros(free);
+				int neighbor = cell + DY[j] * xExtent + DX[j];
+				if (neighbor != goal && field[neighbor] == field[cell] - 1) {
+					next = neighbor;
+				}
+			}
+
+			if (next == -1) {
+				return null;
+			}
+
+			expanded++;
+			path[i] = next;
+			cell = next;
+		}
+		return path;
+	}
+
+	/**
+	 * rebuilds the field for a new map, goal or set of static obstacles
+	 */
+	private void buildField(GridMap map, int goal) {
+		this.map = map;
+		this.goal = goal;
+		staticChangeCount = map.getStaticChangeCount();
+		fillField(map, goal, field, queue);
+	}
+
+	/**
+	 * breadth-first search from every free cell next to the goal over the static
+	 * obstacles of the map
+	 * @param field filled with the number of moves from each cell to a cell next to
+	 *            the goal, or UNREACHABLE
+	 * @param queue scratch space with room for every cell of the map
+	 */
+	static void fillField(GridMap map, int goal, int[] field, int[] queue) {
+		int size = map.size();
+		for (int i = 0; i < size; i++) {
+			field[i] = UNREACHABLE;
+		}
+
+		// the cells are visited in order of distance, so the queue never holds a
+		// cell twice
+		int head = 0;
+		int tail = 0;
+
+		int goalX = map.getX(goal);
+		int goalY = map.getY(goal);
+		for (int i = 0; i < 8; i++) {
+			int x = goalX + DX[i];
+			int y = goalY + DY[i];
+			if (!map.isStaticBlocked(x, y)) {
+				field[map.index(x, y)] = 0;
+				queue[tail++] = map.index(x, y);
+			}
+		}
+
+		int xExtent = map.getXExtent();
+		while (head < tail) {
+			int cell = queue[head++];
+			for (int free = map.staticFreeNeighbors(cell); free != 0; free &= free - 1) {
+				int i = Integer.numberOfTrailingZeros(free);
+				int next = cell + DY[i] * xExtent + DX[i];
+				if (next != goal && field[next] == UNREACHABLE) {
+					field[next] = field[cell] + 1;
+					queue[tail++] = next;
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,265 @@
+package edu.cwru.sepia.agent;
+
+/**
+ * Flat representation of the map used by the path planners. Every cell is
+ * identified by a single int index (y * xExtent + x) so the planners can keep
+ * their bookkeeping in primitive arrays instead of allocating a MapLocation for
+ * every node they touch.
+ *
+ * Obstacles are kept in two bitboards: one for the static obstacles (resources),
+ * built once per map, and an overlay for the cells units are standing on, which
+ * is updated as they move. Each row of a bitboard starts on a word boundary and
+ * the map is surrounded by a border of set bits, so the 3x3 block of bits around
+ * any cell can be read with a couple of shifts and no bounds checks.
+ */
+public class GridMap {
+	private final int xExtent;
+	private final int yExtent;
+
+	// number of bits in each row of the bitboards, including the border
+	private final int rowBits;
+
+	// set for every cell with a static obstacle (a resource) on it
+	private final long[] blocked;
+
+	// set for every cell a unit is standing on, these change from turn to turn
+	private final long[] occupied;
+	private int staticChangeCount = 0;
+
+	// the last CHANGE_LOG_SIZE cells whose blocked state has flipped, in a ring
+	// indexed by the position of the change, so incremental planners can repair
+	// only what changed since they last looked. A planner that has fallen
+	// further behind than the ring holds has to start over
+	private static final int CHANGE_LOG_SIZE = 1024;
+	private final int[] changes = new int[CHANGE_LOG_SIZE];
+	private int changeCount = 0;
+
+	public GridMap(int xExtent, int yExtent) {
+		this.xExtent = xExtent;
+		this.yExtent = yExtent;
+
+		rowBits = ((xExtent + 2 + 63) / 64) * 64;
+		blocked = new long[rowBits / 64 * (yExtent + 2)];
+		occupied = new long[blocked.length];
+
+		// the border is a static obstacle
+		for (int x = -1; x <= xExtent; x++) {
+			setBit(blocked, x, -1);
+			setBit(blocked, x, yExtent);
+		}
+		for (int y = 0; y < yExtent; y++) {
+			setBit(blocked, -1, y);
+			setBit(blocked, xExtent, y);
+		}
+	}
+
+	public int getXExtent() {
+		return xExtent;
+	}
+
+	public int getYExtent() {
+		return yExtent;
+	}
+
+	/**
+	 * @return the number of cells in the map
+	 */
+	public int size() {
+		return xExtent * yExtent;
+	}
+
+	/**
+	 * @param x the x coordinate of the cell
+	 * @param y the y coordinate of the cell
+	 * @return the index of the cell at (x, y)
+	 */
+	public int index(int x, int y) {
+		return y * xExtent + x;
+	}
+
+	public int getX(int cell) {
+		return cell % xExtent;
+	}
+
+	public int getY(int cell) {
+		return cell / xExtent;
+	}
+
+	public boolean inBounds(int x, int y) {
+		return x >= 0 && x < xExtent && y >= 0 && y < yExtent;
+	}
+
+	/**
+	 * @return true if the cell has either a static obstacle or a unit on it
+	 */
+	public boolean isBlocked(int cell) {
+		return isBlocked(getX(cell), getY(cell));
+	}
+
+	/**
+	 * @return true if (x, y) is outside the map or cannot be traveled to
+	 */
+	public boolean isBlocked(int x, int y) {
+		if (!inBounds(x, y)) {
+			return true;
+		}
+		int bit = bitIndex(x, y);
+		return ((blocked[bit >>> 6] | occupied[bit >>> 6]) & (1L << bit)) != 0;
+	}
+
+	/**
+	 * @return true if the cell has a static obstacle on it, ignoring units
+	 */
+	public boolean isStaticBlocked(int cell) {
+		return isStaticBlocked(getX(cell), getY(cell));
+	}
+
+	/**
+	 * @return true if (x, y) is outside the map or has a static obstacle on it
+	 */
+	public boolean isStaticBlocked(int x, int y) {
+		if (!inBounds(x, y)) {
+			return true;
+		}
+		int bit = bitIndex(x, y);
+		return (blocked[bit >>> 6] & (1L << bit)) != 0;
+	}
+
+	/**
+	 * Finds which of the 8 neighbors of a cell can be traveled to. Bit i of the
+	 * result is set when the neighbor at (x + DX[i], y + DY[i]) is free, using the
+	 * neighbor order of GridSearch.
+	 *
+	 * @param cell the cell in the middle
+	 * @return the mask of free neighbors
+	 */
+	public int freeNeighbors(int cell) {
+		int x = getX(cell);
+		int y = getY(cell);
+		return ~(neighborBits(blocked, x, y) | neighborBits(occupied, x, y)) & 0xFF;
+	}
+
+	/**
+	 * same as freeNeighbors, but ignores the units on the map
+	 */
+	public int staticFreeNeighbors(int cell) {
+		return ~neighborBits(blocked, getX(cell), getY(cell)) & 0xFF;
+	}
+
+	/**
+	 * marks a static obstacle, such as a resource, on the map
+	 */
+	public void setBlocked(int x, int y, boolean isBlocked) {
+		if (isStaticBlocked(x, y) == isBlocked) {
+			return;
+		}
+
+		flipBit(blocked, x, y);
+		staticChangeCount++;
+		logChange(index(x, y));
+	}
+
+	/**
+	 * marks a cell that a unit is standing on
+	 */
+	public void setOccupied(int x, int y, boolean isOccupied) {
+		int bit = bitIndex(x, y);
+		if (((occupied[bit >>> 6] & (1L << bit)) != 0) == isOccupied) {
+			return;
+		}
+
+		flipBit(occupied, x, y);
+		logChange(index(x, y));
+	}
+
+	private void logChange(int cell) {
+		changes[changeCount & (CHANGE_LOG_SIZE - 1)] = cell;
+		changeCount++;
+	}
+
+	/**
+	 * @return the number of times a static obstacle has been added or removed
+	 */
+	public int getStaticChangeCount() {
+		return staticChangeCount;
+	}
+
+	/**
+	 * @return the number of times a static obstacle or a unit has been added to or
+	 *         removed from a cell
+	 */
+	public int getChangeCount() {
+		return changeCount;
+	}
+
+	/**
+	 * @return the position of the oldest change still in the log, a planner that
+	 *         has not seen the changes before it has to start over
+	 */
+	public int getFirstLoggedChange() {
+		return Math.max(0, changeCount - CHANGE_LOG_SIZE);
+	}
+
+	/**
+	 * @param i the position of the change in the log, from getFirstLoggedChange()
+	 *            to getChangeCount()
+	 * @return the cell that changed
+	 */
+	public int getChange(int i) {
+		if (i < getFirstLoggedChange() || i >= changeCount) {
+			throw new IllegalArgumentException("Change " + i + " is no longer in the log");
+		}
+		return changes[i & (CHANGE_LOG_SIZE - 1)];
+	}
+
+	/**
+	 * calculates the Chebyshev distance between two cells, which is the number of
+	 * moves needed to travel between them on an open 8-connected map
+	 * @param a the index of the first cell
+	 * @param b the index of the second cell
+	 * @return the Chebyshev distance between the two cells
+	 */
+	public int chebyshev(int a, int b) {
+		return Math.max(Math.abs(getX(a) - getX(b)), Math.abs(getY(a) - getY(b)));
+	}
+
+	/**
+	 * packs the 8 bits around (x, y) into the neighbor order of GridSearch
+	 */
+	private int neighborBits(long[] board, int x, int y) {
+		int above = rowBits(board, x, y - 1);
+		int row = rowBits(board, x, y);
+		int below = rowBits(board, x, y + 1);
+		return above | (row & 1) << 3 | (row & 4) << 2 | below << 5;
+	}
+
+	/**
+	 * @return the bits of the cells (x - 1, y), (x, y) and (x + 1, y) in the lowest
+	 *         three bits
+	 */
+	private int rowBits(long[] board, int x, int y) {
+		int bit = bitIndex(x - 1, y);
+		int word = bit >>> 6;
+		int offset = bit & 63;
+		long bits = board[word] >>> offset;
+		if (offset > 61) {
+			// the three bits straddle two words of the same row
+			bits |= board[word + 1] << (64 - offset);
+		}
+		return (int) bits & 7;
+	}
+
+	private int bitIndex(int x, int y) {
+		return (y + 1) * rowBits + x + 1;
+	}
+
+	private void setBit(long[] board, int x, int y) {
+		int bit = bitIndex(x, y);
+		board[bit >>> 6] |= 1L << bit;
+	}
+
+	private void flipBit(long[] board, int x, int y) {
+		int bit = bitIndex(x, y);
+		board[bit >>> 6] ^= 1L << bit;
+	}
+}
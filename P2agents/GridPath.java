@@ -0,0 +1,128 @@
+package edu.cwru.sepia.agent;
+
+/**
+ * A path being followed by a unit, kept as the cells returned by a planner and
+ * a cursor at the next cell to move to. A small open-addressing table from each
+ * cell to its position on the path answers how far ahead a cell is in constant
+ * time, so checking the enemy against the moves ahead does not scan the path.
+ *
+ * A path of n cells takes two int arrays of about 3n entries in total, where
+ * the Stack of MapLocation it replaces held an object per cell on top of the
+ * array of references.
+ */
+public class GridPath {
+	// stored in the table for a slot that has no cell
+	private static final int EMPTY = -1;
+
+	private final int[] cells;
+	private int cursor = 0;
+
+	// position on the path of the cell hashed to each slot, or EMPTY
+	private final int[] slots;
+	private final int mask;
+
+	/**
+	 * @param cells the cells to move to in order, the path keeps the array
+	 */
+	public GridPath(int[] cells) {
+		this.cells = cells;
+
+		// at most half full so probe sequences stay short
+		int capacity = Integer.highestOneBit(Math.max(2, cells.length * 2 - 1)) << 1;
+		slots = new int[capacity];
+		mask = capacity - 1;
+		for (int i = 0; i < capacity; i++) {
+			slots[i] = EMPTY;
+		}
+
+		for (int i = 0; i < cells.length; i++) {
+			int slot = hash(cells[i]) & mask;
+			while (slots[slot] != EMPTY && cells[slots[slot]] != cells[i]) {
+				slot = (slot + 1) & mask;
+			}
+			// a cell visited twice keeps its last position, which is the one still
+			// ahead the longest
+			slots[slot] = i;
+		}
+	}
+
+	public boolean isEmpty() {
+		return cursor == cells.length;
+	}
+
+	/**
+	 * @return the number of cells left to move to
+	 */
+	public int size() {
+		return cells.length - cursor;
+	}
+
+	/**
+	 * @return the next cell to move to, without moving past it
+	 */
+	public int peek() {
+		return cells[cursor];
+	}
+
+	/**
+	 * @return the next cell to move to, the path then moves on to the one after
+	 */
+	public int next() {
+		return cells[cursor++];
+	}
+
+	/**
+	 * moves the path on past the cell if the cell is on the rest of the path, for
+	 * when the unit walks several cells of the path in one compound move
+	 */
+	public void skipPast(int cell) {
+		int ahead = indexOf(cell);
+		if (ahead != -1) {
+			cursor += ahead + 1;
+		}
+	}
+
+	/**
+	 * @param ahead 0 for the next cell, 1 for the one after and so on
+	 * @return the cell that many moves ahead
+	 */
+	public int get(int ahead) {
+		return cells[cursor + ahead];
+	}
+
+	/**
+	 * @param cell the cell to look for
+	 * @return how many moves ahead the cell is, 0 for the next cell, or -1 if it is
+	 *         not on the rest of the path
+	 */
+	public int indexOf(int cell) {
+		int slot = hash(cell) & mask;
+		while (slots[slot] != EMPTY) {
+			int i = slots[slot];
+			if (cells[i] == cell) {
+				return i >= cursor ? i - cursor : -1;
+			}
+			slot = (slot + 1) & mask;
+		}
+		return -1;
+	}
+
+	/**
+	 * @param detour the cells of a detour that ends on a cell of this path
+	 * @param length the number of cells of the detour to use
+	 * @param ahead how many moves ahead the last cell of the detour is on this path
+	 * @return a new path that follows the detour and then the rest of this path
+	 */
+	public GridPath splice(int[] detour, int length, int ahead) {
+		int rest = cells.length - cursor - ahead - 1;
+		int[] spliced = new int[length + rest];
+		System.arraycopy(detour, 0, spliced, 0, length);
+		System.arraycopy(cells, cursor + ahead + 1, spliced, length, rest);
+		return new GridPath(spliced);
+	}
+
+	private static int hash(int cell) {
+		int h = cell * 0x9E3779B9;
+		return h ^ (h >>> 16);
+	}
+}
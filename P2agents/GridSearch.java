@@ -0,0 +1,99 @@
+package edu.cwru.sepia.agent;
+
+import java.util.BitSet;
+
+/**
+ * Bookkeeping shared by the best-first planners. g-scores and parent links live
+ * in flat int arrays indexed by cell and the closed set is a BitSet, so a search
+ * does not allocate anything per node.
+ *
+ * The arrays are sized once for the map and reused by every search. Instead of
+ * clearing them between searches each cell is stamped with the id of the search
+ * that last wrote its g-score.
+ */
+public abstract class GridSearch implements PathPlanner {
+	// offsets of the 8 neighbors of a cell
+	static final int[] DX = { -1, 0, 1, -1, 1, -1, 0, 1 };
+	static final int[] DY = { -1, -1, -1, 0, 0, 1, 1, 1 };
+
+	protected final int size;
+
+	protected final int[] gScore;
+	protected final int[] parent;
+	protected final int[] stamp;
+	protected final BitSet closed;
+	protected final IndexedMinHeap open;
+
+	protected int searchID = 0;
+	protected int expanded = 0;
+
+	public GridSearch(int size) {
+		this.size = size;
+		gScore = new int[size];
+		parent = new int[size];
+		stamp = new int[size];
+		closed = new BitSet(size);
+		open = new IndexedMinHeap(size);
+	}
+
+	@Override
+	public int getExpanded() {
+		return expanded;
+	}
+
+	@Override
+	public int getRepaired() {
+		return 0;
+	}
+
+	/**
+	 * resets the open and closed sets and invalidates every g-score
+	 * @param map the map about to be searched
+	 */
+	protected void nextSearch(GridMap map) {
+		if (map.size() != size) {
+			throw new IllegalArgumentException("Map does not match the size of the planner");
+		}
+
+		open.clear();
+		closed.clear();
+		expanded = 0;
+		searchID++;
+
+		// the stamps wrapped around so every stale entry has to be cleared
+		if (searchID == 0) {
+			for (int i = 0; i < size; i++) {
+				stamp[i] = 0;
+			}
+			searchID = 1;
+		}
+	}
+
+	/**
+	 * @return true if the cell has been given a g-score by the current search
+	 */
+	protected boolean isVisited(int cell) {
+		return stamp[cell] == searchID;
+	}
+
+	protected void visit(int cell, int g, int from) {
+		stamp[cell] = searchID;
+		gScore[cell] = g;
+		parent[cell] = from;
+	}
+
+	/**
+	 * the number of moves needed to get next to the goal on an open map
+	 */
+	static int heuristic(int x, int y, int goalX, int goalY) {
+		return Math.max(0, Math.max(Math.abs(x - goalX), Math.abs(y - goalY)) - 1);
+	}
+
+	/**
+	 * packs f into the high bits and h into the low bits so ties on f are broken in
+	 * favor of the cell closer to the goal
+	 */
+	static long key(int g, int h) {
+		return ((long) (g + h) << 32) | h;
+	}
+}
@@ -0,0 +1,661 @@
+package edu.cwru.sepia.agent;
+
+import java.util.Arrays;
+
+/**
+ * Hierarchical pathfinding (HPA*) over a GridMap. The map is split into square
+ * clusters and every run of free cells along the border of two clusters gets
+ * one or two entrances. The distances between the entrances of each cluster are
+ * found once per map, which gives a small abstract graph that can be searched
+ * instead of the whole map.
+ *
+ * A query links the start and the cells around the goal into the abstract graph,
+ * searches it with A* and only refines the route into single-step moves one
+ * cluster at a time. Each call to findPath returns the moves up to the next
+ * cluster on the route, and the following call continues the same route as long
+ * as nothing on it has changed. A unit moving only invalidates the entrance
+ * distances of the cluster it is in.
+ */
+public class HierarchicalPlanner implements PathPlanner {
+	private static final int INFINITY = Integer.MAX_VALUE / 4;
+
+	// entrances longer than this get a transition at each end instead of the middle
+	private static final int MAX_SINGLE_ENTRANCE = 6;
+
+	private final int size;
+	private final int clusterSize;
+
+	// the map, goal and static obstacles the abstract graph was built for
+	private GridMap map;
+	private int staticChangeCount;
+	private int changesSeen;
+	private int clustersX;
+	private int clustersY;
+
+	// abstract nodes, each sits on a cell next to the border of its cluster
+	private int nodeCount;
+	private int[] nodeCell;
+	private int[] nodeCluster;
+	private int[] nodeOfCell;
+	private int[][] clusterNodes;
+	private int[] clusterNodeCount;
+
+	// clusters a unit has moved in or out of since they were last connected
+	private boolean[] dirty;
+
+	// outgoing edges of each node, both between clusters and within its cluster
+	private int[][] edgeTarget;
+	private int[][] edgeCost;
+	private int[] edgeCount;
+
+	// cost from each node to the cells around the goal within its cluster
+	private int[] goalCost;
+
+	// abstract search, the two extra ids are the start and the goal
+	private int[] abstractG;
+	private int[] abstractParent;
+	private int[] abstractStamp;
+	private int abstractSearchID;
+	private IndexedMinHeap abstractOpen;
+	private int[] startCost;
+
+	// breadth-first search within one cluster, indexed by the cell's position in it
+	private final int[] localDist;
+	private final int[] localParent;
+	private final int[] localQueue;
+
+	// the route currently being followed
+	private int[] route = new int[16];
+	private int routeLength = 0;
+	private int routeIndex = 0;
+	private int routeGoal = -1;
+	private int expectedStart = -1;
+	private boolean routeValid = false;
+
+	// flat search used when the abstract graph has no route
+	private AstarPlanner fallback;
+
+	private int expanded = 0;
+	private int repaired = 0;
+
+	public HierarchicalPlanner(int size, int clusterSize) {
+		if (clusterSize < 2) {
+			throw new IllegalArgumentException("Clusters must be at least 2 cells wide");
+		}
+
+		this.size = size;
+		this.clusterSize = clusterSize;
+		localDist = new int[clusterSize * clusterSize];
+		localParent = new int[clusterSize * clusterSize];
+		localQueue = new int[clusterSize * clusterSize];
+	}
+
+	@Override
+	public int getExpanded() {
+		return expanded;
+	}
+
+	@Override
+	public int getRepaired() {
+		return repaired;
+	}
+
+	@Override
+	public int[] findPath(GridMap map, int start, int goal) {
+		if (map.size() != size) {
+			throw new IllegalArgumentException("Map does not match the size of the planner");
+		}
+
+		expanded = 0;
+		repaired = 0;
+
+		if (map != this.map || map.getStaticChangeCount() != staticChangeCount) {
+			buildAbstractGraph(map);
+		} else {
+			repairChangedClusters();
+		}
+
+		// continue the current route if the unit is where the last leg ended
+		if (!routeValid || goal != routeGoal || start != expectedStart) {
+			if (!searchAbstractGraph(start, goal)) {
+				// a unit standing on an entrance can cut the abstract graph even though
+				// there is still a way around it
+				routeValid = false;
+				if (fallback == null) {
+					fallback = new AstarPlanner(size);
+				}
+				int[] path = fallback.findPath(map, start, goal);
+				expanded += fallback.getExpanded();
+				return path;
+			}
+		}
+
+		return refineNextLeg(start, goal);
+	}
+
+	/**
+	 * finds the entrances between every pair of neighboring clusters and the
+	 * distances between the entrances of each cluster
+	 */
+	private void buildAbstractGraph(GridMap map) {
+		this.map = map;
+		staticChangeCount = map.getStaticChangeCount();
+		changesSeen = map.getChangeCount();
+		routeValid = false;
+
+		int xExtent = map.getXExtent();
+		int yExtent = map.getYExtent();
+		clustersX = (xExtent + clusterSize - 1) / clusterSize;
+		clustersY = (yExtent + clusterSize - 1) / clusterSize;
+
+		nodeCount = 0;
+		nodeCell = new int[16];
+		nodeCluster = new int[16];
+		nodeOfCell = new int[size];
+		Arrays.fill(nodeOfCell, -1);
+		clusterNodes = new int[clustersX * clustersY][4];
+		clusterNodeCount = new int[clustersX * clustersY];
+		dirty = new boolean[clustersX * clustersY];
+		edgeTarget = new int[16][];
+		edgeCost = new int[16][];
+		edgeCount = new int[16];
+
+		// entrances across the vertical borders
+		for (int x = clusterSize - 1; x + 1 < xExtent; x += clusterSize) {
+			for (int top = 0; top < yExtent; top += clusterSize) {
+				int bottom = Math.min(top + clusterSize, yExtent);
+				addEntrances(x, top, 0, 1, bottom - top, 1, 0);
+			}
+		}
+
+		// entrances across the horizontal borders
+		for (int y = clusterSize - 1; y + 1 < yExtent; y += clusterSize) {
+			for (int left = 0; left < xExtent; left += clusterSize) {
+				int right = Math.min(left + clusterSize, xExtent);
+				addEntrances(left, y, 1, 0, right - left, 0, 1);
+			}
+		}
+
+		for (int cluster = 0; cluster < clustersX * clustersY; cluster++) {
+			connectCluster(cluster);
+		}
+
+		goalCost = new int[nodeCount];
+		startCost = new int[nodeCount + 2];
+		abstractG = new int[nodeCount + 2];
+		abstractParent = new int[nodeCount + 2];
+		abstractStamp = new int[nodeCount + 2];
+		abstractOpen = new IndexedMinHeap(nodeCount + 2);
+	}
+
+	/**
+	 * scans one border segment for runs of cells that are free on both sides
+	 * @param x the first cell on the near side of the border
+	 * @param y the first cell on the near side of the border
+	 * @param stepX the direction along the border
+	 * @param stepY the direction along the border
+	 * @param length the number of cells along the border
+	 * @param acrossX the offset to the far side of the border
+	 * @param acrossY the offset to the far side of the border
+	 */
+	private void addEntrances(int x, int y, int stepX, int stepY, int length, int acrossX, int acrossY) {
+		int runStart = -1;
+		for (int i = 0; i <= length; i++) {
+			int cx = x + i * stepX;
+			int cy = y + i * stepY;
+			boolean open = i < length && !map.isStaticBlocked(cx, cy)
+					&& !map.isStaticBlocked(cx + acrossX, cy + acrossY);
+
+			if (open && runStart == -1) {
+				runStart = i;
+			} else if (!open && runStart != -1) {
+				int runLength = i - runStart;
+				if (runLength < MAX_SINGLE_ENTRANCE) {
+					addTransition(x + (runStart + runLength / 2) * stepX, y + (runStart + runLength / 2) * stepY,
+							acrossX, acrossY);
+				} else {
+					addTransition(x + runStart * stepX, y + runStart * stepY, acrossX, acrossY);
+					addTransition(x + (i - 1) * stepX, y + (i - 1) * stepY, acrossX, acrossY);
+				}
+				runStart = -1;
+			}
+		}
+
+		// cells that can only cross the border diagonally
+		for (int i = 0; i < length; i++) {
+			int cx = x + i * stepX;
+			int cy = y + i * stepY;
+			if (map.isStaticBlocked(cx, cy)) {
+				continue;
+			}
+
+			for (int side = -1; side <= 1; side += 2) {
+				int farX = cx + acrossX + side * stepX;
+				int farY = cy + acrossY + side * stepY;
+				if (map.isStaticBlocked(farX, farY)) {
+					continue;
+				}
+
+				// within the segment a run of the border already connects the two cells
+				// unless both orthogonal crossings are blocked
+				boolean inSegment = i + side >= 0 && i + side < length;
+				if (!inSegment || (map.isStaticBlocked(cx + acrossX, cy + acrossY)
+						&& map.isStaticBlocked(cx + side * stepX, cy + side * stepY))) {
+					addTransition(cx, cy, farX - cx, farY - cy);
+				}
+			}
+		}
+	}
+
+	private void addTransition(int x, int y, int acrossX, int acrossY) {
+		int near = getNode(map.index(x, y));
+		int far = getNode(map.index(x + acrossX, y + acrossY));
+		for (int i = 0; i < edgeCount[near]; i++) {
+			if (edgeTarget[near][i] == far) {
+				return;
+			}
+		}
+
+		addEdge(near, far, 1);
+		addEdge(far, near, 1);
+	}
+
+	/**
+	 * @return the node on the cell, creating it if there is none yet
+	 */
+	private int getNode(int cell) {
+		if (nodeOfCell[cell] != -1) {
+			return nodeOfCell[cell];
+		}
+
+		if (nodeCount == nodeCell.length) {
+			int capacity = nodeCount * 2;
+			nodeCell = Arrays.copyOf(nodeCell, capacity);
+			nodeCluster = Arrays.copyOf(nodeCluster, capacity);
+			edgeTarget = Arrays.copyOf(edgeTarget, capacity);
+			edgeCost = Arrays.copyOf(edgeCost, capacity);
+			edgeCount = Arrays.copyOf(edgeCount, capacity);
+		}
+
+		int node = nodeCount++;
+		int cluster = clusterOf(cell);
+		nodeCell[node] = cell;
+		nodeCluster[node] = cluster;
+		nodeOfCell[cell] = node;
+		edgeTarget[node] = new int[4];
+		edgeCost[node] = new int[4];
+
+		if (clusterNodeCount[cluster] == clusterNodes[cluster].length) {
+			clusterNodes[cluster] = Arrays.copyOf(clusterNodes[cluster], clusterNodeCount[cluster] * 2);
+		}
+		clusterNodes[cluster][clusterNodeCount[cluster]++] = node;
+		return node;
+	}
+
+	private void addEdge(int from, int to, int cost) {
+		if (edgeCount[from] == edgeTarget[from].length) {
+			edgeTarget[from] = Arrays.copyOf(edgeTarget[from], edgeCount[from] * 2);
+			edgeCost[from] = Arrays.copyOf(edgeCost[from], edgeCount[from] * 2);
+		}
+		edgeTarget[from][edgeCount[from]] = to;
+		edgeCost[from][edgeCount[from]] = cost;
+		edgeCount[from]++;
+	}
+
+	/**
+	 * replaces the edges between the nodes of one cluster with the current
+	 * distances between them
+	 */
+	private void connectCluster(int cluster) {
+		int[] nodes = clusterNodes[cluster];
+		int count = clusterNodeCount[cluster];
+
+		for (int i = 0; i < count; i++) {
+			int node = nodes[i];
+
+			// keep only the edges that leave the cluster
+			int kept = 0;
+			for (int j = 0; j < edgeCount[node]; j++) {
+				if (nodeCluster[edgeTarget[node][j]] != cluster) {
+					edgeTarget[node][kept] = edgeTarget[node][j];
+					edgeCost[node][kept] = edgeCost[node][j];
+					kept++;
+				}
+			}
+			edgeCount[node] = kept;
+		}
+
+		for (int i = 0; i < count; i++) {
+			int node = nodes[i];
+			if (map.isBlocked(nodeCell[node])) {
+				continue;
+			}
+
+			searchCluster(cluster, nodeCell[node], -1);
+			for (int j = 0; j < count; j++) {
+				int distance = localDist[localIndex(nodeCell[nodes[j]])];
+				if (j != i && distance < INFINITY) {
+					addEdge(node, nodes[j], distance);
+				}
+			}
+		}
+	}
+
+	/**
+	 * recomputes the clusters that units have moved in or out of since the last
+	 * call, and drops the current route if it passes through one of them
+	 */
+	private void repairChangedClusters() {
+		if (changesSeen < map.getFirstLoggedChange()) {
+			// the changes that were missed are gone, any cluster may have changed
+			Arrays.fill(dirty, true);
+		} else {
+			for (int i = changesSeen; i < map.getChangeCount(); i++) {
+				dirty[clusterOf(map.getChange(i))] = true;
+			}
+		}
+		changesSeen = map.getChangeCount();
+
+		for (int cluster = 0; cluster < dirty.length; cluster++) {
+			if (!dirty[cluster]) {
+				continue;
+			}
+
+			dirty[cluster] = false;
+			connectCluster(cluster);
+			repaired++;
+
+			for (int j = routeIndex; j < routeLength && routeValid; j++) {
+				if (route[j] < nodeCount && nodeCluster[route[j]] == cluster) {
+					routeValid = false;
+				}
+			}
+			if (routeValid && clusterOf(expectedStart) == cluster) {
+				routeValid = false;
+			}
+		}
+	}
+
+	/**
+	 * links the start and the cells around the goal into the abstract graph and
+	 * finds the cheapest route between them
+	 * @return true if there is a route
+	 */
+	private boolean searchAbstractGraph(int start, int goal) {
+		int startNode = nodeCount;
+		int goalNode = nodeCount + 1;
+
+		// cost from the start to every node of its cluster
+		int startCluster = clusterOf(start);
+		searchCluster(startCluster, start, -1);
+		Arrays.fill(startCost, INFINITY);
+		for (int i = 0; i < clusterNodeCount[startCluster]; i++) {
+			int node = clusterNodes[startCluster][i];
+			startCost[node] = localDist[localIndex(nodeCell[node])];
+		}
+		startCost[goalNode] = distanceToGoal(startCluster, goal);
+
+		// cost from the nodes of the clusters around the goal to the goal
+		Arrays.fill(goalCost, INFINITY);
+		int[] goalClusters = new int[4];
+		int goalClusterCount = 0;
+		for (int i = 0; i < 8; i++) {
+			int x = map.getX(goal) + GridSearch.DX[i];
+			int y = map.getY(goal) + GridSearch.DY[i];
+			if (!map.inBounds(x, y)) {
+				continue;
+			}
+
+			int cluster = clusterOf(map.index(x, y));
+			boolean searched = false;
+			for (int j = 0; j < goalClusterCount; j++) {
+				searched |= goalClusters[j] == cluster;
+			}
+			if (searched) {
+				continue;
+			}
+			goalClusters[goalClusterCount++] = cluster;
+
+			searchCluster(cluster, -1, goal);
+			for (int j = 0; j < clusterNodeCount[cluster]; j++) {
+				int node = clusterNodes[cluster][j];
+				goalCost[node] = localDist[localIndex(nodeCell[node])];
+			}
+		}
+
+		abstractSearchID++;
+		abstractOpen.clear();
+		abstractStamp[startNode] = abstractSearchID;
+		abstractG[startNode] = 0;
+		abstractParent[startNode] = -1;
+		abstractOpen.update(startNode, GridSearch.key(0, estimate(start, goal)));
+
+		while (!abstractOpen.isEmpty()) {
+			int current = abstractOpen.poll();
+			if (current == goalNode) {
+				storeRoute(goalNode, goal);
+				return true;
+			}
+			expanded++;
+
+			if (current == startNode) {
+				for (int i = 0; i < clusterNodeCount[startCluster]; i++) {
+					int node = clusterNodes[startCluster][i];
+					if (startCost[node] < INFINITY) {
+						relax(current, node, startCost[node], goal);
+					}
+				}
+				if (startCost[goalNode] < INFINITY) {
+					relax(current, goalNode, startCost[goalNode], goal);
+				}
+				continue;
+			}
+
+			if (goalCost[current] < INFINITY) {
+				relax(current, goalNode, goalCost[current], goal);
+			}
+			for (int i = 0; i < edgeCount[current]; i++) {
+				int next = edgeTarget[current][i];
+				if (!map.isBlocked(nodeCell[next])) {
+					relax(current, next, edgeCost[current][i], goal);
+				}
+			}
+		}
+
+		return false;
+	}
+
+	private void relax(int from, int to, int cost, int goal) {
+		int g = abstractG[from] + cost;
+		if (abstractStamp[to] != abstractSearchID || g < abstractG[to]) {
+			abstractStamp[to] = abstractSearchID;
+			abstractG[to] = g;
+			abstractParent[to] = from;
+			int h = to == nodeCount + 1 ? 0 : estimate(nodeCell[to], goal);
+			abstractOpen.update(to, GridSearch.key(g, h));
+		}
+	}
+
+	private int estimate(int cell, int goal) {
+		return GridSearch.heuristic(map.getX(cell), map.getY(cell), map.getX(goal), map.getY(goal));
+	}
+
+	private void storeRoute(int goalNode, int goal) {
+		routeLength = 0;
+		for (int node = goalNode; node != -1; node = abstractParent[node]) {
+			if (routeLength == route.length) {
+				route = Arrays.copyOf(route, routeLength * 2);
+			}
+			route[routeLength++] = node;
+		}
+
+		// the route was collected from the goal back to the start
+		for (int i = 0, j = routeLength - 1; i < j; i++, j--) {
+			int swap = route[i];
+			route[i] = route[j];
+			route[j] = swap;
+		}
+
+		routeIndex = 0;
+		routeGoal = goal;
+		routeValid = true;
+	}
+
+	/**
+	 * turns the legs of the route into single-step moves until the route leaves
+	 * the cluster the unit is in or reaches the goal
+	 */
+	private int[] refineNextLeg(int start, int goal) {
+		int[] path = new int[clusterSize * 4];
+		int length = 0;
+		int cell = start;
+		int startNode = nodeCount;
+		int goalNode = nodeCount + 1;
+
+		while (routeIndex + 1 < routeLength) {
+			int from = route[routeIndex];
+			int to = route[routeIndex + 1];
+			routeIndex++;
+
+			int fromCell = from == startNode ? cell : nodeCell[from];
+			if (to != goalNode && nodeCluster[to] != clusterOf(fromCell)) {
+				// crossing into the next cluster is a single step
+				if (length == path.length) {
+					path = Arrays.copyOf(path, length * 2);
+				}
+				path[length++] = nodeCell[to];
+				cell = nodeCell[to];
+				break;
+			}
+
+			int cluster = clusterOf(fromCell);
+			int end;
+			if (to == goalNode) {
+				end = searchCluster(cluster, fromCell, goal);
+			} else {
+				searchCluster(cluster, fromCell, -1);
+				end = nodeCell[to];
+			}
+
+			int legStart = length;
+			for (int local = localIndex(end); localDist[local] > 0; local = localParent[local]) {
+				if (length == path.length) {
+					path = Arrays.copyOf(path, length * 2);
+				}
+				path[length++] = cellOf(cluster, local);
+			}
+
+			// the leg was collected backwards
+			for (int i = legStart, j = length - 1; i < j; i++, j--) {
+				int swap = path[i];
+				path[i] = path[j];
+				path[j] = swap;
+			}
+			cell = end;
+		}
+
+		expectedStart = cell;
+		if (routeIndex + 1 >= routeLength) {
+			routeValid = false;
+		}
+		return Arrays.copyOf(path, length);
+	}
+
+	/**
+	 * @return the distance from the last searched source to the closest cell of the
+	 *         cluster next to the goal
+	 */
+	private int distanceToGoal(int cluster, int goal) {
+		int best = INFINITY;
+		for (int i = 0; i < 8; i++) {
+			int x = map.getX(goal) + GridSearch.DX[i];
+			int y = map.getY(goal) + GridSearch.DY[i];
+			if (map.inBounds(x, y) && clusterOf(map.index(x, y)) == cluster) {
+				best = Math.min(best, localDist[localIndex(map.index(x, y))]);
+			}
+		}
+		return best;
+	}
+
+	/**
+	 * Breadth-first search restricted to one cluster. With a source cell the
+	 * search starts from it and stops next to the goal, otherwise it starts from
+	 * every free cell of the cluster next to the goal so the distances are
+	 * distances to the goal.
+	 *
+	 * @param cluster the cluster to search
+	 * @param source the cell to start from, or -1 to start from the goal
+	 * @param goal the goal, or -1 to search the whole cluster from the source
+	 * @return the first cell next to the goal that was reached, or -1
+	 */
+	private int searchCluster(int cluster, int source, int goal) {
+		int left = (cluster % clustersX) * clusterSize;
+		int top = (cluster / clustersX) * clusterSize;
+		int right = Math.min(left + clusterSize, map.getXExtent());
+		int bottom = Math.min(top + clusterSize, map.getYExtent());
+
+		Arrays.fill(localDist, INFINITY);
+		int head = 0;
+		int tail = 0;
+
+		if (source != -1) {
+			localDist[localIndex(source)] = 0;
+			localQueue[tail++] = localIndex(source);
+		} else {
+			for (int i = 0; i < 8; i++) {
+				int x = map.getX(goal) + GridSearch.DX[i];
+				int y = map.getY(goal) + GridSearch.DY[i];
+				if (x >= left && x < right && y >= top && y < bottom && !map.isBlocked(x, y)) {
+					int local = localIndex(map.index(x, y));
+					localDist[local] = 0;
+					localQueue[tail++] = local;
+				}
+			}
+		}
+
+		boolean stopNextToGoal = source != -1 && goal != -1;
+		while (head < tail) {
+			int local = localQueue[head++];
+			int cell = cellOf(cluster, local);
+			if (stopNextToGoal && map.chebyshev(cell, goal) == 1) {
+				expanded += head;
+				return cell;
+			}
+
+			int x = map.getX(cell);
+			int y = map.getY(cell);
+			for (int free = map.freeNeighbors(cell); free != 0; free &= free - 1) {
+				int i = Integer.numberOfTrailingZeros(free);
+				int nx = x + GridSearch.DX[i];
+				int ny = y + GridSearch.DY[i];
+				if (nx < left || nx >= right || ny < top || ny >= bottom) {
+					continue;
+				}
+
+				int next = map.index(nx, ny);
+				int nextLocal = localIndex(next);
+				if (next != goal && localDist[nextLocal] == INFINITY) {
+					localDist[nextLocal] = localDist[local] + 1;
+					localParent[nextLocal] = local;
+					localQueue[tail++] = nextLocal;
+				}
+			}
+		}
+		expanded += head;
+		return -1;
+	}
+
+	private int clusterOf(int cell) {
+		return (map.getY(cell) / clusterSize) * clustersX + map.getX(cell) / clusterSize;
+	}
+
+	private int localIndex(int cell) {
+		return (map.getY(cell) % clusterSize) * clusterSize + map.getX(cell) % clusterSize;
+	}
+
+	private int cellOf(int cluster, int local) {
+		int x = (cluster % clustersX) * clusterSize + local % clusterSize;
+		int y = (cluster / clustersX) * clusterSize + local / clusterSize;
+		return map.index(x, y);
+	}
+}
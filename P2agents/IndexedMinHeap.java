@@ -0,0 +1,174 @@
+package edu.cwru.sepia.agent;
+
+/**
+ * Binary min heap of cell indices keyed by a long priority. The position of
+ * every cell in the heap is tracked in a flat array so the priority of a cell
+ * that is already queued can be lowered in place (decrease-key) without
+ * allocating a new entry.
+ *
+ * The planners pack two values into the key (for example f in the high bits and
+ * h in the low bits) so ties on f are broken in favor of the cell closest to the
+ * goal.
+ */
+public class IndexedMinHeap {
+	private final int[] heap;
+	private final long[] keys;
+
+	// position of each cell in the heap, or -1 if the cell is not queued
+	private final int[] position;
+
+	private int size = 0;
+
+	/**
+	 * @param capacity the number of distinct cells that can be queued
+	 */
+	public IndexedMinHeap(int capacity) {
+		heap = new int[capacity];
+		keys = new long[capacity];
+		position = new int[capacity];
+		for (int i = 0; i < capacity; i++) {
+			position[i] = -1;
+		}
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	public boolean contains(int cell) {
+		return position[cell] != -1;
+	}
+
+	/**
+	 * @return the key the cell is currently queued with
+	 */
+	public long getKey(int cell) {
+		return keys[cell];
+	}
+
+	/**
+	 * @return the key of the cell at the top of the heap
+	 */
+	public long peekKey() {
+		return keys[heap[0]];
+	}
+
+	public int peek() {
+		return heap[0];
+	}
+
+	/**
+	 * @param i a position in the heap, from 0 to size() - 1
+	 * @return the cell at that position, cells are not in key order
+	 */
+	public int get(int i) {
+		return heap[i];
+	}
+
+	/**
+	 * queues the cell, or moves it to its new place if it is already queued
+	 * @param cell the cell to queue
+	 * @param key the new key of the cell
+	 */
+	public void update(int cell, long key) {
+		if (position[cell] == -1) {
+			heap[size] = cell;
+			position[cell] = size;
+			keys[cell] = key;
+			size++;
+			siftUp(size - 1);
+		} else if (key < keys[cell]) {
+			keys[cell] = key;
+			siftUp(position[cell]);
+		} else {
+			keys[cell] = key;
+			siftDown(position[cell]);
+		}
+	}
+
+	/**
+	 * removes and returns the cell with the smallest key
+	 */
+	public int poll() {
+		int top = heap[0];
+		removeAt(0);
+		return top;
+	}
+
+	/**
+	 * removes the cell from the heap if it is queued
+	 */
+	public void remove(int cell) {
+		if (position[cell] != -1) {
+			removeAt(position[cell]);
+		}
+	}
+
+	/**
+	 * removes every cell from the heap in O(size) time
+	 */
+	public void clear() {
+		for (int i = 0; i < size; i++) {
+			position[heap[i]] = -1;
+		}
+		size = 0;
+	}
+
+	private void removeAt(int i) {
+		int removed = heap[i];
+		size--;
+		position[removed] = -1;
+		if (i == size) {
+			return;
+		}
+
+		// fill the hole with the last cell and restore the heap order
+		int last = heap[size];
+		heap[i] = last;
+		position[last] = i;
+		siftUp(i);
+		siftDown(position[last]);
+	}
+
+	private void siftUp(int i) {
+		int cell = heap[i];
+		long key = keys[cell];
+		while (i > 0) {
+			int parent = (i - 1) >>> 1;
+			int parentCell = heap[parent];
+			if (keys[parentCell] <= key) {
+				break;
+			}
+			heap[i] = parentCell;
+			position[parentCell] = i;
+			i = parent;
+		}
+		heap[i] = cell;
+		position[cell] = i;
+	}
+
+	private void siftDown(int i) {
+		int cell = heap[i];
+		long key = keys[cell];
+		int half = size >>> 1;
+		while (i < half) {
+			int child = 2 * i + 1;
+			int right = child + 1;
+			if (right < size && keys[heap[right]] < keys[heap[child]]) {
+				child = right;
+			}
+			if (key <= keys[heap[child]]) {
+				break;
+			}
+			heap[i] = heap[child];
+			position[heap[i]] = i;
+			i = child;
+		}
+		heap[i] = cell;
+		position[cell] = i;
+	}
+}
@@ -0,0 +1,181 @@
+package edu.cwru.sepia.agent;
+
+/**
+ * Jump Point Search over a GridMap. On a uniform-cost 8-connected map most of
+ * the cells A* would expand only lie on one of many symmetric shortest paths.
+ * JPS prunes those symmetric branches by scanning in a straight line from each
+ * node and only stopping (and queueing a node) at cells where an obstacle forces
+ * a turn, so the open set holds a handful of jump points instead of every cell.
+ *
+ * Diagonal moves are allowed past blocked corners, the same as the primitive
+ * moves Sepia executes. The jump points of the final path are expanded back into
+ * single-step cells so the result is interchangeable with AstarPlanner.
+ */
+public class JpsPlanner extends GridSearch {
+
+	private GridMap map;
+	private int goal;
+	private int goalX;
+	private int goalY;
+
+	public JpsPlanner(int size) {
+		super(size);
+	}
+
+	@Override
+	public int[] findPath(GridMap map, int start, int goal) {
+		nextSearch(map);
+
+		this.map = map;
+		this.goal = goal;
+		goalX = map.getX(goal);
+		goalY = map.getY(goal);
+
+		int xExtent = map.getXExtent();
+		int startX = map.getX(start);
+		int startY = map.getY(start);
+
+		visit(start, 0, -1);
+		open.update(start, key(0, heuristic(startX, startY, goalX, goalY)));
+
+		while (!open.isEmpty()) {
+			int current = open.poll();
+			int cx = current % xExtent;
+			int cy = current / xExtent;
+
+			// reached the ring of cells around the goal
+			if (heuristic(cx, cy, goalX, goalY) == 0 && current != goal) {
+				return reconstructPath(current);
+			}
+
+			closed.set(current);
+			expanded++;
+
+			int from = parent[current];
+			for (int i = 0; i < 8; i++) {
+				int dx = DX[i];
+				int dy = DY[i];
+
+				// only search the directions that are not pruned by the move into this cell
+				if (from != -1 && !isSuccessorDirection(cx, cy, map.getX(from), map.getY(from), dx, dy)) {
+					continue;
+				}
+
+				int jumpPoint = jump(cx, cy, dx, dy);
+				if (jumpPoint == -1 || closed.get(jumpPoint)) {
+					continue;
+				}
+
+				int nextG = gScore[current] + map.chebyshev(current, jumpPoint);
+				if (!isVisited(jumpPoint) || nextG < gScore[jumpPoint]) {
+					visit(jumpPoint, nextG, current);
+					open.update(jumpPoint,
+							key(nextG, heuristic(map.getX(jumpPoint), map.getY(jumpPoint), goalX, goalY)));
+				}
+			}
+		}
+
+		return null;
+	}
+
+	/**
+	 * determines whether a direction is either a natural or a forced neighbor of
+	 * the cell given the direction the search arrived from
+	 */
+	private boolean isSuccessorDirection(int x, int y, int fromX, int fromY, int dx, int dy) {
+		int px = Integer.signum(x - fromX);
+		int py = Integer.signum(y - fromY);
+
+		if (px != 0 && py != 0) {
+			// natural neighbors of a diagonal move
+			if ((dx == px && dy == py) || (dx == px && dy == 0) || (dx == 0 && dy == py)) {
+				return true;
+			}
+			// forced neighbors of a diagonal move
+			if (dx == -px && dy == py) {
+				return !isFree(x - px, y) && isFree(x - px, y + py);
+			}
+			if (dx == px && dy == -py) {
+				return !isFree(x, y - py) && isFree(x + px, y - py);
+			}
+			return false;
+		} else if (px != 0) {
+			// natural and forced neighbors of a horizontal move
+			if (dx != px) {
+				return false;
+			}
+			return dy == 0 || (!isFree(x, y + dy) && isFree(x + px, y + dy));
+		} else {
+			// natural and forced neighbors of a vertical move
+			if (dy != py) {
+				return false;
+			}
+			return dx == 0 || (!isFree(x + dx, y) && isFree(x + dx, y + py));
+		}
+	}
+
+	/**
+	 * scans from (x, y) in the given direction until it finds a cell that has to be
+	 * queued
+	 * @return the jump point, or -1 if the scan ran into an obstacle first
+	 */
+	private int jump(int x, int y, int dx, int dy) {
+		while (true) {
+			x += dx;
+			y += dy;
+			if (!isFree(x, y)) {
+				return -1;
+			}
+
+			if (heuristic(x, y, goalX, goalY) == 0) {
+				return map.index(x, y);
+			}
+
+			if (dx != 0 && dy != 0) {
+				if ((!isFree(x - dx, y) && isFree(x - dx, y + dy))
+						|| (!isFree(x, y - dy) && isFree(x + dx, y - dy))) {
+					return map.index(x, y);
+				}
+
+				// a diagonal scan stops wherever one of its straight scans finds a jump point
+				if (jump(x, y, dx, 0) != -1 || jump(x, y, 0, dy) != -1) {
+					return map.index(x, y);
+				}
+			} else if (dx != 0) {
+				if ((!isFree(x, y + 1) && isFree(x + dx, y + 1)) || (!isFree(x, y - 1) && isFree(x + dx, y - 1))) {
+					return map.index(x, y);
+				}
+			} else {
+				if ((!isFree(x + 1, y) && isFree(x + 1, y + dy)) || (!isFree(x - 1, y) && isFree(x - 1, y + dy))) {
+					return map.index(x, y);
+				}
+			}
+		}
+	}
+
+	/**
+	 * the goal itself is treated as an obstacle since the unit stops next to it
+	 */
+	private boolean isFree(int x, int y) {
+		return !map.isBlocked(x, y) && !(x == goalX && y == goalY);
+	}
+
+	/**
+	 * expands the jump points of the path back into single-step moves
+	 */
+	private int[] reconstructPath(int end) {
+		int[] path = new int[gScore[end]];
+		int i = path.length;
+		int cell = end;
+		while (parent[cell] != -1) {
+			int from = parent[cell];
+			int dx = Integer.signum(map.getX(from) - map.getX(cell));
+			int dy = Integer.signum(map.getY(from) - map.getY(cell));
+			for (int x = map.getX(cell), y = map.getY(cell); x != map.getX(from) || y != map.getY(from); x += dx, y += dy) {
+				path[--i] = map.index(x, y);
+			}
+			cell = from;
+		}
+		return path;
+	}
+}
@@ -0,0 +1,106 @@
+package edu.cwru.sepia.agent;
+
+/**
+ * Histogram of non-negative long values with a fixed relative precision, in the
+ * style of HdrHistogram. Values below 64 get a bucket each, and every power of
+ * two above that is split into 32 equal buckets, so any value is known to
+ * within about 3% while the whole range of a long fits in under 2000 counters.
+ *
+ * All counters are allocated up front and recording a value is a couple of
+ * shifts and an array increment, so the histogram can be updated every turn
+ * without allocating or disturbing the times it is measuring.
+ */
+public class LogLinearHistogram {
+	// each power of two is split into 2^SUB_BUCKET_BITS buckets
+	private static final int SUB_BUCKET_BITS = 5;
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+	private final long[] counts = new long[(64 - SUB_BUCKET_BITS) * SUB_BUCKETS];
+
+	private long count = 0;
+	private long total = 0;
+	private long min = Long.MAX_VALUE;
+	private long max = 0;
+
+	/**
+	 * @param value the value to add, negative values are counted as 0
+	 */
+	public void record(long value) {
+		if (value < 0) {
+			value = 0;
+		}
+
+		counts[bucketOf(value)]++;
+		count++;
+		total += value;
+		if (value < min) {
+			min = value;
+		}
+		if (value > max) {
+			max = value;
+		}
+	}
+
+	public long getCount() {
+		return count;
+	}
+
+	public long getTotal() {
+		return total;
+	}
+
+	/**
+	 * @return the smallest value recorded, or 0 if there are none
+	 */
+	public long getMin() {
+		return count == 0 ? 0 : min;
+	}
+
+	public long getMax() {
+		return max;
+	}
+
+	public double getMean() {
+		return count == 0 ? 0 : (double) total / count;
+	}
+
+	/**
+	 * @param percentile the percentile, from 0 to 100
+	 * @return the largest value in the bucket the percentile falls in, which is
+	 *         never less than the exact percentile and never more than the largest
+	 *         value recorded
+	 */
+	public long getValueAtPercentile(double percentile) {
+		if (count == 0) {
+			return 0;
+		}
+
+		long rank = Math.max(1, (long) Math.ceil(percentile / 100 * count));
+		long seen = 0;
+		for (int bucket = 0; bucket < counts.length; bucket++) {
+			seen += counts[bucket];
+			if (seen >= rank) {
+				return Math.min(max, highestValueIn(bucket));
+			}
+		}
+		return max;
+	}
+
+	/**
+	 * values below 2 * SUB_BUCKETS map to themselves, larger values keep their
+	 * highest SUB_BUCKET_BITS + 1 bits and the number of bits shifted out
+	 */
+	private static int bucketOf(long value) {
+		int shift = Math.max(0, 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS);
+		return (shift << SUB_BUCKET_BITS) + (int) (value >>> shift);
+	}
+
+	private static long highestValueIn(int bucket) {
+		if (bucket < 2 * SUB_BUCKETS) {
+			return bucket;
+		}
+		int shift = (bucket >>> SUB_BUCKET_BITS) - 1;
+		long subBucket = (bucket & (SUB_BUCKETS - 1)) | SUB_BUCKETS;
+		return ((subBucket + 1) << shift) - 1;
+	}
+}
@@ -0,0 +1,128 @@
+package edu.cwru.sepia.agent;
+
+/**
+ * Open-addressing hash map from long keys to int values. Keys and values are
+ * kept in parallel primitive arrays and collisions are resolved by linear
+ * probing, so lookups and inserts do not allocate and clearing the map between
+ * searches does not free anything.
+ *
+ * The cooperative planner uses it for its space-time tables, where the key packs
+ * a cell and a time step.
+ */
+public class LongIntHashMap {
+	public static final int MISSING = -1;
+
+	// the value stored in the keys array of a slot that is not used
+	private static final long EMPTY = Long.MIN_VALUE;
+
+	private long[] keys;
+	private int[] values;
+	private int mask;
+	private int size = 0;
+
+	/**
+	 * @param expected the number of entries the map should hold without growing
+	 */
+	public LongIntHashMap(int expected) {
+		int capacity = Integer.highestOneBit(Math.max(4, expected * 2 - 1)) << 1;
+		allocate(capacity);
+	}
+
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * @param key any key except Long.MIN_VALUE
+	 * @return the value stored for the key, or MISSING
+	 */
+	public int get(long key) {
+		int slot = hash(key) & mask;
+		while (true) {
+			long stored = keys[slot];
+			if (stored == key) {
+				return values[slot];
+			}
+			if (stored == EMPTY) {
+				return MISSING;
+			}
+			slot = (slot + 1) & mask;
+		}
+	}
+
+	/**
+	 * stores a value for the key, replacing the old one if there is one
+	 * @param key any key except Long.MIN_VALUE
+	 * @param value the value to store
+	 */
+	public void put(long key, int value) {
+		int slot = hash(key) & mask;
+		while (true) {
+			long stored = keys[slot];
+			if (stored == key) {
+				values[slot] = value;
+				return;
+			}
+			if (stored == EMPTY) {
+				break;
+			}
+			slot = (slot + 1) & mask;
+		}
+
+		keys[slot] = key;
+		values[slot] = value;
+		size++;
+
+		// keep the table at most half full so probe sequences stay short
+		if (size * 2 > keys.length) {
+			grow();
+		}
+	}
+
+	/**
+	 * removes every entry, in time proportional to the capacity of the map
+	 */
+	public void clear() {
+		if (size == 0) {
+			return;
+		}
+		for (int i = 0; i < keys.length; i++) {
+			keys[i] = EMPTY;
+		}
+		size = 0;
+	}
+
+	private void grow() {
+		long[] oldKeys = keys;
+		int[] oldValues = values;
+		allocate(oldKeys.length * 2);
+		for (int i = 0; i < oldKeys.length; i++) {
+			if (oldKeys[i] != EMPTY) {
+				int slot = hash(oldKeys[i]) & mask;
+				while (keys[slot] != EMPTY) {
+					slot = (slot + 1) & mask;
+				}
+				keys[slot] = oldKeys[i];
+				values[slot] = oldValues[i];
+			}
+		}
+	}
+
+	private void allocate(int capacity) {
+		keys = new long[capacity];
+		values = new int[capacity];
+		mask = capacity - 1;
+		for (int i = 0; i < capacity; i++) {
+			keys[i] = EMPTY;
+		}
+	}
+
+	/**
+	 * spreads the bits of the key so keys that only differ in their high bits (the
+	 * time step) do not land in neighboring slots
+	 */
+	private static int hash(long key) {
+		long h = key * 0x9E3779B97F4A7C15L;
+		return (int) (h ^ (h >>> 32));
+	}
+}
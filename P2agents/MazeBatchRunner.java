@@ -0,0 +1,325 @@
+package edu.cwru.sepia.agent;
+
+import java.io.File;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.reflect.Constructor;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import javax.xml.bind.JAXBContext;
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+
+import edu.cwru.sepia.environment.Environment;
+import edu.cwru.sepia.environment.model.SimpleModel;
+import edu.cwru.sepia.environment.model.persistence.generated.XmlState;
+import edu.cwru.sepia.environment.model.state.State;
+import edu.cwru.sepia.environment.model.state.StateCreator;
+import edu.cwru.sepia.environment.model.state.Unit;
+import edu.cwru.sepia.environment.model.state.XmlStateCreator;
+import edu.cwru.sepia.experiment.Configuration;
+import edu.cwru.sepia.experiment.ConfigurationValues;
+
+/**
+ * Runs the maze configs of the assignment in Sepia without the VisualAgent and
+ * prints one table of the results, instead of starting Sepia once per config
+ * and reading the output of the agent. Every config is played for a number of
+ * episodes with seeds 0, 1, 2 and so on, and the episodes of all the configs
+ * are spread over a fixed pool of threads, each of which plays one episode in
+ * its own Environment at a time.
+ *
+ * For each config it prints the episodes played and the ones that destroyed
+ * the townhall, the mean, smallest and largest number of turns, the mean and
+ * largest planning time of an episode and the mean number of replans. The
+ * output of the agents is thrown away while the episodes run.
+ *
+ * Agent arguments given after the thread count replace the ones in the configs
+ * for AstarAgent, so the same batch can be run with each planner and option.
+ *
+ * Usage: java edu.cwru.sepia.agent.MazeBatchRunner [data directory] [episodes]
+ * [threads] [agent args...]
+ */
+public class MazeBatchRunner {
+	private static final String[] CONFIGS = { "maze_8x8", "maze_16x16", "maze_16x16n", "maze_16x16h",
+			"maze_16x16h_dynamic" };
+	private static final int EPISODES = 10;
+
+	// Sepia only ends a game of conquest when every enemy unit is dead, which the
+	// enemy footman on the dynamic maze never is, so an episode also ends once the
+	// townhall is destroyed or after this many turns
+	private static final int MAX_TURNS = 1000;
+
+	/**
+	 * a config with its map and the agents that play it
+	 */
+	static class Scenario {
+		final String name;
+		final XmlState state;
+		final Configuration configuration;
+		final List<String> agentClasses = new ArrayList<String>();
+		final List<Integer> agentPlayers = new ArrayList<Integer>();
+		final List<String[]> agentArgs = new ArrayList<String[]>();
+
+		// false if the footman cannot reach the townhall, AstarAgent then exits the
+		// whole program so the config is not played
+		boolean reachable;
+
+		Scenario(String name, XmlState state, Configuration configuration) {
+			this.name = name;
+			this.state = state;
+			this.configuration = configuration;
+		}
+	}
+
+	/**
+	 * how one episode ended
+	 */
+	static class Result {
+		final int turns;
+		final boolean destroyedTownhall;
+		final long planTime; // nsecs
+		final int replans;
+
+		Result(int turns, boolean destroyedTownhall, long planTime, int replans) {
+			this.turns = turns;
+			this.destroyedTownhall = destroyedTownhall;
+			this.planTime = planTime;
+			this.replans = replans;
+		}
+	}
+
+	public static void main(String[] args) throws Exception {
+		String dataDirectory = args.length > 0 ? args[0] : "ProgrammingData/Programming2/data";
+		int episodes = args.length > 1 ? Integer.parseInt(args[1]) : EPISODES;
+		int threads = args.length > 2 ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+		String[] agentArgs = args.length > 3 ? Arrays.copyOfRange(args, 3, args.length) : null;
+
+		List<Scenario> scenarios = new ArrayList<Scenario>();
+		for (String config : CONFIGS) {
+			scenarios.add(loadScenario(config, new File(dataDirectory, config + "_config.xml")));
+		}
+
+		// the agents print every move, which would only slow the threads down
+		PrintStream out = System.out;
+		System.setOut(new PrintStream(new OutputStream() {
+			@Override
+			public void write(int b) {
+			}
+
+			@Override
+			public void write(byte[] b, int off, int len) {
+			}
+		}));
+
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		List<List<Future<Result>>> futures = new ArrayList<List<Future<Result>>>();
+		int submitted = 0;
+		long startTime = System.nanoTime();
+		for (final Scenario scenario : scenarios) {
+			List<Future<Result>> scenarioFutures = new ArrayList<Future<Result>>();
+			for (int i = 0; scenario.reachable && i < episodes; i++) {
+				final int seed = i;
+				final String[] episodeArgs = agentArgs;
+				scenarioFutures.add(executor.submit(new Callable<Result>() {
+					@Override
+					public Result call() throws Exception {
+						return runEpisode(scenario, episodeArgs, seed);
+					}
+				}));
+				submitted++;
+			}
+			futures.add(scenarioFutures);
+		}
+
+		out.println(String.format("%-22s %9s %9s %10s %10s %10s %14s %14s %10s", "config", "episodes", "destroyed",
+				"turns", "min", "max", "plan (ms)", "max plan (ms)", "replans"));
+		for (int i = 0; i < scenarios.size(); i++) {
+			printResults(out, scenarios.get(i), futures.get(i));
+		}
+		long elapsed = System.nanoTime() - startTime;
+		out.println(String.format("%d episodes on %d threads in %.2f s", submitted, threads,
+				elapsed / 1e9));
+
+		// every Environment leaves a thread behind for each of its agents, waiting
+		// for a turn that never comes
+		executor.shutdown();
+		System.exit(0);
+	}
+
+	/**
+	 * reads the map, the model parameters and the agents other than the
+	 * VisualAgent from a Sepia config file, whose map path is relative to the
+	 * directory above the data directory
+	 */
+	static Scenario loadScenario(String name, File file) throws Exception {
+		Element config = DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(file)
+				.getDocumentElement();
+		File mapFile = new File(file.getAbsoluteFile().getParentFile().getParentFile(),
+				PathBenchmark.childText(config, "Map"));
+
+		XmlState state = (XmlState) JAXBContext.newInstance(XmlState.class).createUnmarshaller()
+				.unmarshal(mapFile);
+
+		Configuration configuration = new Configuration();
+		Element parameters = (Element) config.getElementsByTagName("ModelParameters").item(0);
+		configuration.put(ConfigurationValues.MODEL_CONQUEST.key,
+				Boolean.parseBoolean(PathBenchmark.childText(parameters, "Conquest")));
+		configuration.put(ConfigurationValues.MODEL_MIDAS.key,
+				Boolean.parseBoolean(PathBenchmark.childText(parameters, "Midas")));
+		configuration.put(ConfigurationValues.MODEL_MANIFEST_DESTINY.key,
+				Boolean.parseBoolean(PathBenchmark.childText(parameters, "ManifestDestiny")));
+		configuration.put(ConfigurationValues.MODEL_TIME_LIMIT.key,
+				Integer.parseInt(PathBenchmark.childText(parameters, "TimeLimit")));
+
+		Scenario scenario = new Scenario(name, state, configuration);
+		NodeList players = config.getElementsByTagName("Player");
+		for (int i = 0; i < players.getLength(); i++) {
+			Element player = (Element) players.item(i);
+			Element agentClass = (Element) player.getElementsByTagName("AgentClass").item(0);
+			String className = PathBenchmark.childText(agentClass, "ClassName");
+			if (className.equals("edu.cwru.sepia.agent.visual.VisualAgent")) {
+				continue;
+			}
+
+			NodeList arguments = agentClass.getElementsByTagName("Argument");
+			String[] agentArgs = new String[arguments.getLength()];
+			for (int j = 0; j < agentArgs.length; j++) {
+				agentArgs[j] = arguments.item(j).getTextContent().trim();
+			}
+			scenario.agentClasses.add(className);
+			scenario.agentPlayers.add(Integer.parseInt(player.getAttribute("Id")));
+			scenario.agentArgs.add(agentArgs);
+		}
+
+		PathBenchmark.Scenario maze = PathBenchmark.loadMaze(name, mapFile);
+		int[] field = new int[maze.map.size()];
+		DistanceFieldPlanner.fillField(maze.map, maze.goal, field, new int[field.length]);
+		scenario.reachable = field[maze.starts[0]] != DistanceFieldPlanner.UNREACHABLE;
+		return scenario;
+	}
+
+	/**
+	 * plays one episode of the config in an Environment of its own
+	 */
+	static Result runEpisode(Scenario scenario, String[] astarArgs, int seed) throws Exception {
+		StateCreator stateCreator = new XmlStateCreator(scenario.state);
+		SimpleModel model = new SimpleModel(stateCreator.createState(), seed, stateCreator,
+				scenario.configuration);
+
+		Agent[] agents = new Agent[scenario.agentClasses.size()];
+		AstarAgent astarAgent = null;
+		for (int i = 0; i < agents.length; i++) {
+			String className = scenario.agentClasses.get(i);
+			String[] agentArgs = scenario.agentArgs.get(i);
+			if (className.equals(AstarAgent.class.getName())) {
+				if (astarArgs != null) {
+					agentArgs = astarArgs;
+				} else if (agentArgs.length == 0) {
+					agentArgs = new String[] { "astar" };
+				}
+
+				// the statistics file would be written by every episode at once
+				agentArgs = Arrays.copyOf(agentArgs, agentArgs.length + 1);
+				agentArgs[agentArgs.length - 1] = "stats=";
+			}
+			agents[i] = createAgent(className, scenario.agentPlayers.get(i), agentArgs);
+			if (agents[i] instanceof AstarAgent) {
+				astarAgent = (AstarAgent) agents[i];
+			}
+		}
+
+		Environment environment = new Environment(agents, model, seed);
+		environment.forceNewEpisode();
+		int turnLimit = Math.min(MAX_TURNS, ConfigurationValues.MODEL_TIME_LIMIT.getIntValue(scenario.configuration));
+		boolean destroyedTownhall = false;
+		while (!environment.isTerminated() && model.getState().getTurnNumber() < turnLimit) {
+			environment.step();
+			if (!hasTownhall(model.getState())) {
+				destroyedTownhall = true;
+				break;
+			}
+		}
+		environment.terminalStep();
+
+		return new Result(model.getState().getTurnNumber(), destroyedTownhall,
+				astarAgent != null ? astarAgent.getTotalPlanTime() : 0,
+				astarAgent != null ? astarAgent.getTotalReplans() : 0);
+	}
+
+	/**
+	 * makes the agent the same way Sepia does, with the arguments from the config
+	 * if it has any
+	 */
+	private static Agent createAgent(String className, int player, String[] args) throws Exception {
+		Class<?> agentClass = Class.forName(className);
+		if (args.length == 0) {
+			Constructor<?> constructor = agentClass.getConstructor(int.class);
+			return (Agent) constructor.newInstance(player);
+		}
+		Constructor<?> constructor = agentClass.getConstructor(int.class, String[].class);
+		return (Agent) constructor.newInstance(player, args);
+	}
+
+	private static boolean hasTownhall(State state) {
+		for (Unit unit : state.getUnits().values()) {
+			if (unit.getTemplate().getName().equalsIgnoreCase("TownHall")) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static void printResults(PrintStream out, Scenario scenario, List<Future<Result>> futures)
+			throws InterruptedException {
+		if (!scenario.reachable) {
+			out.println(String.format("%-22s %9s", scenario.name, "no path"));
+			return;
+		}
+
+		int count = 0;
+		int destroyed = 0;
+		long totalTurns = 0;
+		int minTurns = Integer.MAX_VALUE;
+		int maxTurns = 0;
+		long totalPlanTime = 0;
+		long maxPlanTime = 0;
+		long totalReplans = 0;
+		for (Future<Result> future : futures) {
+			Result result;
+			try {
+				result = future.get();
+			} catch (ExecutionException e) {
+				System.err.println(scenario.name + ": episode failed: " + e.getCause());
+				continue;
+			}
+
+			count++;
+			if (result.destroyedTownhall) {
+				destroyed++;
+			}
+			totalTurns += result.turns;
+			minTurns = Math.min(minTurns, result.turns);
+			maxTurns = Math.max(maxTurns, result.turns);
+			totalPlanTime += result.planTime;
+			maxPlanTime = Math.max(maxPlanTime, result.planTime);
+			totalReplans += result.replans;
+		}
+
+		if (count == 0) {
+			out.println(String.format("%-22s %9d", scenario.name, 0));
+			return;
+		}
+		out.println(String.format("%-22s %9d %9d %10.1f %10d %10d %14.3f %14.3f %10.1f", scenario.name, count,
+				destroyed, (double) totalTurns / count, minTurns, maxTurns, totalPlanTime / 1e6 / count,
+				maxPlanTime / 1e6, (double) totalReplans / count));
+	}
+}
@@ -0,0 +1,126 @@
+package edu.cwru.sepia.agent;
+
+import java.util.Random;
+
+/**
+ * Builds large synthetic maps for testing the planners. A perfect maze is
+ * carved with a randomized depth-first search, which leaves walls on about half
+ * of the cells and exactly one way between any two cells, and walls are then
+ * knocked down at random until the requested share of the map is blocked. Low
+ * densities give open maps with scattered obstacles and high densities give
+ * long winding corridors.
+ *
+ * The same seed always gives the same map.
+ */
+public class MazeGenerator {
+	// offsets of the 4 rooms next to a room
+	private static final int[] ROOM_DX = { 0, -1, 1, 0 };
+	private static final int[] ROOM_DY = { -1, 0, 0, 1 };
+
+	private MazeGenerator() {
+	}
+
+	/**
+	 * @param width the width of the map, at least 3
+	 * @param height the height of the map, at least 3
+	 * @param density the share of cells that should be blocked, from 0 to 1, the
+	 *            map can not be made denser than a perfect maze
+	 * @param seed the seed of the random number generator
+	 * @return the map, the cells (1, 1) and (width - 2, height - 2) are always free
+	 *         and connected
+	 */
+	public static GridMap generate(int width, int height, double density, long seed) {
+		if (width < 3 || height < 3) {
+			throw new IllegalArgumentException("Mazes must be at least 3 cells wide and high");
+		}
+
+		Random random = new Random(seed);
+
+		// the maze is carved in a plain array first, since every change to a GridMap is
+		// logged for the incremental planners
+		boolean[] blocked = new boolean[width * height];
+		for (int i = 0; i < blocked.length; i++) {
+			blocked[i] = true;
+		}
+
+		// the maze is carved on the odd cells, the even cells between them are walls
+		int roomsX = (width - 1) / 2;
+		int roomsY = (height - 1) / 2;
+		boolean[] carved = new boolean[roomsX * roomsY];
+		int[] stack = new int[roomsX * roomsY];
+		int top = 0;
+
+		carved[0] = true;
+		stack[top++] = 0;
+		blocked[width + 1] = false;
+		int blockedCount = width * height - 1;
+
+		int[] options = new int[4];
+		while (top > 0) {
+			int room = stack[top - 1];
+			int roomX = room % roomsX;
+			int roomY = room / roomsX;
+
+			int count = 0;
+			for (int i = 0; i < 4; i++) {
+				int nextX = roomX + ROOM_DX[i];
+				int nextY = roomY + ROOM_DY[i];
+				if (nextX >= 0 && nextX < roomsX && nextY >= 0 && nextY < roomsY && !carved[nextY * roomsX + nextX]) {
+					options[count++] = i;
+				}
+			}
+
+			if (count == 0) {
+				top--;
+				continue;
+			}
+
+			// knock down the wall to a random room that has not been carved yet
+			int i = options[random.nextInt(count)];
+			int nextX = roomX + ROOM_DX[i];
+			int nextY = roomY + ROOM_DY[i];
+			carved[nextY * roomsX + nextX] = true;
+			stack[top++] = nextY * roomsX + nextX;
+			blocked[(2 * roomY + 1 + ROOM_DY[i]) * width + 2 * roomX + 1 + ROOM_DX[i]] = false;
+			blocked[(2 * nextY + 1) * width + 2 * nextX + 1] = false;
+			blockedCount -= 2;
+		}
+
+		// the far corner is outside the carved rooms on even sized maps, so it is
+		// joined to the last room
+		int endX = width - 2;
+		int endY = height - 2;
+		for (int x = 2 * roomsX - 1; x <= endX; x++) {
+			if (blocked[endY * width + x]) {
+				blocked[endY * width + x] = false;
+				blockedCount--;
+			}
+		}
+		for (int y = 2 * roomsY - 1; y <= endY; y++) {
+			if (blocked[y * width + endX]) {
+				blocked[y * width + endX] = false;
+				blockedCount--;
+			}
+		}
+
+		// open up random walls until the map is no denser than asked for
+		int target = (int) (density * width * height);
+		while (blockedCount > target) {
+			int cell = random.nextInt(blocked.length);
+			if (blocked[cell]) {
+				blocked[cell] = false;
+				blockedCount--;
+			}
+		}
+
+		GridMap map = new GridMap(width, height);
+		for (int y = 0; y < height; y++) {
+			for (int x = 0; x < width; x++) {
+				if (blocked[y * width + x]) {
+					map.setBlocked(x, y, true);
+				}
+			}
+		}
+		return map;
+	}
+}
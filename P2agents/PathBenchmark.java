@@ -0,0 +1,243 @@
+package edu.cwru.sepia.agent;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+
+/**
+ * Repeatable benchmark of the planners, run without starting Sepia. The maze
+ * files of the assignment are read straight from their XML and large mazes are
+ * made with MazeGenerator, then every planner answers the same queries for a
+ * fixed amount of time on each map.
+ *
+ * For each map and planner it prints the searches per second, the median and
+ * 99th percentile time of a search, the nodes expanded per search and the bytes
+ * allocated per search. A search always finds the whole path, so the
+ * hierarchical planner is asked for one leg after another until it is done.
+ *
+ * Usage: java edu.cwru.sepia.agent.PathBenchmark [data directory] [planner...]
+ */
+public class PathBenchmark {
+	private static final String[] MAZES = { "maze_8x8", "maze_16x16", "maze_16x16n", "maze_16x16h" };
+	private static final int[] GENERATED_SIZES = { 256, 2048 };
+	private static final double[] GENERATED_DENSITIES = { 0.1, 0.3, 0.5 };
+	private static final String[] PLANNERS = { "astar", "jps", "bidirectional", "field", "dstarlite", "hpa",
+			"anytime" };
+
+	// time spent on each map and planner before and while measuring
+	private static final long WARMUP_NANOS = 500000000L;
+	private static final long MEASURE_NANOS = 1000000000L;
+	private static final int MAX_SEARCHES = 100000;
+
+	// options of hpa and predictive, the defaults of the AstarAgent
+	private static final int CLUSTER_SIZE = 8;
+	private static final int WINDOW = 16;
+
+	// number of different start cells the searches cycle through on each map
+	private static final int STARTS = 16;
+
+	/**
+	 * a map with the footman's start cells and the townhall's cell
+	 */
+	static class Scenario {
+		final String name;
+		final GridMap map;
+		final int[] starts;
+		final int goal;
+
+		Scenario(String name, GridMap map, int[] starts, int goal) {
+			this.name = name;
+			this.map = map;
+			this.starts = starts;
+			this.goal = goal;
+		}
+	}
+
+	public static void main(String[] args) throws Exception {
+		String dataDirectory = args.length > 0 ? args[0] : "ProgrammingData/Programming2/data";
+		String[] planners = args.length > 1 ? Arrays.copyOfRange(args, 1, args.length) : PLANNERS;
+
+		List<Scenario> scenarios = new ArrayList<Scenario>();
+		for (String maze : MAZES) {
+			scenarios.add(loadMaze(maze, new File(dataDirectory, maze + ".xml")));
+		}
+		for (int size : GENERATED_SIZES) {
+			for (double density : GENERATED_DENSITIES) {
+				scenarios.add(generateMaze(size, density, size));
+			}
+		}
+
+		System.out.println(String.format("%-22s %-14s %12s %12s %12s %14s %14s", "map", "planner", "ops/s",
+				"p50 (us)", "p99 (us)", "expanded/op", "bytes/op"));
+		for (Scenario scenario : scenarios) {
+			for (String planner : planners) {
+				run(scenario, planner);
+			}
+		}
+	}
+
+	/**
+	 * reads the obstacles, the footman and the townhall from a Sepia state file
+	 */
+	static Scenario loadMaze(String name, File file) throws Exception {
+		Document document = DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(file);
+		Element state = document.getDocumentElement();
+		GridMap map = new GridMap(Integer.parseInt(state.getAttribute("xExtent")),
+				Integer.parseInt(state.getAttribute("yExtent")));
+
+		NodeList resources = state.getElementsByTagName("resourceNode");
+		for (int i = 0; i < resources.getLength(); i++) {
+			Element resource = (Element) resources.item(i);
+			map.setBlocked(childInt(resource, "xPosition"), childInt(resource, "yPosition"), true);
+		}
+
+		// the unit templates are needed to tell the townhall from the footmen
+		Map<Integer, String> templateNames = new HashMap<Integer, String>();
+		NodeList templates = state.getElementsByTagName("template");
+		for (int i = 0; i < templates.getLength(); i++) {
+			Element template = (Element) templates.item(i);
+			templateNames.put(childInt(template, "ID"), childText(template, "name"));
+		}
+
+		int start = -1;
+		int goal = -1;
+		NodeList players = state.getElementsByTagName("player");
+		for (int i = 0; i < players.getLength(); i++) {
+			Element player = (Element) players.item(i);
+			NodeList units = player.getElementsByTagName("unit");
+			for (int j = 0; j < units.getLength(); j++) {
+				Element unit = (Element) units.item(j);
+				int cell = map.index(childInt(unit, "xPosition"), childInt(unit, "yPosition"));
+				String type = templateNames.get(childInt(unit, "templateID"));
+				if ("TownHall".equalsIgnoreCase(type)) {
+					goal = cell;
+				} else if ("Footman".equalsIgnoreCase(type) && childInt(player, "ID") == 0 && start == -1) {
+					start = cell;
+				}
+			}
+		}
+
+		if (start == -1 || goal == -1) {
+			throw new IllegalArgumentException(file + " does not have a footman and a townhall");
+		}
+
+		// the townhall is an obstacle, the same as in AstarAgent
+		map.setBlocked(map.getX(goal), map.getY(goal), true);
+		return new Scenario(name, map, new int[] { start }, goal);
+	}
+
+	/**
+	 * makes a maze with the townhall in the far corner and start cells spread over
+	 * the near half of the map
+	 */
+	static Scenario generateMaze(int size, double density, long seed) {
+		GridMap map = MazeGenerator.generate(size, size, density, seed);
+		int goal = map.index(size - 2, size - 2);
+		map.setBlocked(size - 2, size - 2, true);
+
+		Random random = new Random(seed);
+		int[] starts = new int[STARTS];
+		starts[0] = map.index(1, 1);
+		for (int i = 1; i < STARTS; i++) {
+			int cell;
+			do {
+				cell = map.index(random.nextInt(size / 2), random.nextInt(size / 2));
+			} while (map.isBlocked(cell));
+			starts[i] = cell;
+		}
+		return new Scenario("maze" + size + "@" + density, map, starts, goal);
+	}
+
+	private static void run(Scenario scenario, String plannerName) {
+		// no budget, so every anytime search runs until the path is the shortest one
+		PathPlanner planner = PlannerFactory.create(plannerName, scenario.map.size(), CLUSTER_SIZE, WINDOW, 0);
+		if (planner == null) {
+			System.err.println("Unknown planner " + plannerName);
+			return;
+		}
+
+		// the first search is where stateful planners build their tables, so it is
+		// part of the warmup
+		long end = System.nanoTime() + WARMUP_NANOS;
+		int i = 0;
+		do {
+			search(planner, scenario, scenario.starts[i++ % scenario.starts.length]);
+		} while (System.nanoTime() < end && i < MAX_SEARCHES);
+
+		ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+		boolean countBytes = threads instanceof com.sun.management.ThreadMXBean;
+		long threadID = Thread.currentThread().getId();
+		long bytesBefore = countBytes ? ((com.sun.management.ThreadMXBean) threads).getThreadAllocatedBytes(threadID)
+				: 0;
+
+		long[] latencies = new long[MAX_SEARCHES];
+		long expanded = 0;
+		int count = 0;
+		long measureStart = System.nanoTime();
+		end = measureStart + MEASURE_NANOS;
+		while (count < MAX_SEARCHES && System.nanoTime() < end) {
+			long searchStart = System.nanoTime();
+			expanded += search(planner, scenario, scenario.starts[count % scenario.starts.length]);
+			latencies[count++] = System.nanoTime() - searchStart;
+		}
+		long elapsed = System.nanoTime() - measureStart;
+
+		long bytes = countBytes
+				? ((com.sun.management.ThreadMXBean) threads).getThreadAllocatedBytes(threadID) - bytesBefore
+				: -1;
+
+		Arrays.sort(latencies, 0, count);
+		System.out.println(String.format("%-22s %-14s %12.1f %12.1f %12.1f %14.1f %14s", scenario.name, plannerName,
+				count / (elapsed / 1e9), latencies[count / 2] / 1e3, latencies[(int) (count * 0.99)] / 1e3,
+				(double) expanded / count, countBytes ? String.format("%.1f", (double) bytes / count) : "n/a"));
+	}
+
+	/**
+	 * finds the whole path from the start to the townhall
+	 * @return the number of nodes expanded
+	 */
+	private static long search(PathPlanner planner, Scenario scenario, int start) {
+		GridMap map = scenario.map;
+		long expanded = 0;
+		int cell = start;
+		while (true) {
+			int[] path = planner.findPath(map, cell, scenario.goal);
+			expanded += planner.getExpanded();
+
+			// every planner but the hierarchical one returns the whole path at once
+			if (path == null || path.length == 0 || map.chebyshev(path[path.length - 1], scenario.goal) == 1) {
+				return expanded;
+			}
+			cell = path[path.length - 1];
+		}
+	}
+
+	private static int childInt(Element element, String tag) {
+		return Integer.parseInt(childText(element, tag));
+	}
+
+	/**
+	 * @return the text of the first direct child of the element with the tag
+	 */
+	static String childText(Element element, String tag) {
+		NodeList children = element.getChildNodes();
+		for (int i = 0; i < children.getLength(); i++) {
+			if (children.item(i) instanceof Element && ((Element) children.item(i)).getTagName().equals(tag)) {
+				return children.item(i).getTextContent().trim();
+			}
+		}
+		throw new IllegalArgumentException("<" + element.getTagName() + "> has no <" + tag + ">");
+	}
+}
@@ -0,0 +1,29 @@
+package edu.cwru.sepia.agent;
+
+/**
+ * Common interface of the planners the AstarAgent can be configured with. A
+ * planner finds a path from a start cell to any cell adjacent to the goal cell
+ * and returns it as the cells to move to in order.
+ */
+public interface PathPlanner {
+
+	/**
+	 * @param map the map to search
+	 * @param start the cell the unit is standing on
+	 * @param goal the cell of the target, the path ends next to it
+	 * @return the cells to move to in order, not including the start cell, or null
+	 *         if there is no path
+	 */
+	public int[] findPath(GridMap map, int start, int goal);
+
+	/**
+	 * @return the number of nodes expanded by the last call to findPath
+	 */
+	public int getExpanded();
+
+	/**
+	 * @return the number of cells whose cost was repaired in place by the last call
+	 *         to findPath, always 0 for planners that search from scratch
+	 */
+	public int getRepaired();
+}
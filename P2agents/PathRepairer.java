@@ -0,0 +1,156 @@
+package edu.cwru.sepia.agent;
+
+/**
+ * Repairs a path that a unit has stepped onto by searching around it locally
+ * instead of planning the whole way again. A breadth-first search from the
+ * footman's cell looks for the cells of the path past the blocked one. It may
+ * only leave the path on the cells within a fixed radius of the blocked cell,
+ * and the detour to the cell that leaves the shortest way to the goal is then
+ * spliced into the rest of the path.
+ *
+ * Apart from the path up to the blocked cell, the search never touches more
+ * than (2 * radius + 1)^2 cells however long the path is. When the path cannot
+ * be rejoined inside the radius the repair fails and the caller has to search
+ * from scratch.
+ */
+public class PathRepairer {
+	private final int size;
+	private final int radius;
+
+	// moves from the start and the cell each cell was reached from, valid for the
+	// cells stamped with the current search
+	private final int[] distance;
+	private final int[] parent;
+	private final int[] stamp;
+	private final int[] queue;
+	private int searchID = 0;
+
+	private int[] detour = new int[16];
+	private int expanded = 0;
+
+	/**
+	 * @param size the number of cells in the map
+	 * @param radius the farthest the detour may go from the blocked cell, in moves
+	 */
+	public PathRepairer(int size, int radius) {
+		if (radius < 1) {
+			throw new IllegalArgumentException("The repair radius must be at least one cell");
+		}
+
+		this.size = size;
+		this.radius = radius;
+		distance = new int[size];
+		parent = new int[size];
+		stamp = new int[size];
+		queue = new int[size];
+	}
+
+	/**
+	 * @return the number of cells expanded by the last call to repair
+	 */
+	public int getExpanded() {
+		return expanded;
+	}
+
+	/**
+	 * @param map the map with the unit in the way marked on it
+	 * @param start the cell the footman is standing on
+	 * @param path the moves left on the path
+	 * @param blocked how many moves ahead the blocked cell is on the path
+	 * @return the detour followed by the rest of the path, or null if the path
+	 *         cannot be rejoined within the radius
+	 */
+	public GridPath repair(GridMap map, int start, GridPath path, int blocked) {
+		if (map.size() != size) {
+			throw new IllegalArgumentException("Map does not match the size of the planner");
+		}
+
+		nextSearch();
+
+		int xExtent = map.getXExtent();
+		int blockedCell = path.get(blocked);
+		int head = 0;
+		int tail = 0;
+		distance[start] = 0;
+		parent[start] = -1;
+		stamp[start] = searchID;
+		queue[tail++] = start;
+
+		// the cell the detour rejoins the path at, and the moves to the goal through it
+		int best = -1;
+		int bestAhead = -1;
+		int bestLength = Integer.MAX_VALUE;
+
+		while (head < tail) {
+			int cell = queue[head++];
+
+			// the cells are taken in order of distance and the rest of the path cannot
+			// be negative, so nothing further away can beat the best so far
+			if (distance[cell] >= bestLength) {
+				break;
+			}
+
+			int ahead = cell == start ? -1 : path.indexOf(cell);
+			if (ahead > blocked) {
+				int length = distance[cell] + path.size() - ahead - 1;
+				if (length < bestLength) {
+					best = cell;
+					bestAhead = ahead;
+					bestLength = length;
+				}
+				continue;
+			}
+
+			expanded++;
+			for (int free = map.freeNeighbors(cell); free != 0; free &= free - 1) {
+				int i = Integer.numberOfTrailingZeros(free);
+				int next = cell + GridSearch.DY[i] * xExtent + GridSearch.DX[i];
+				if (stamp[next] == searchID) {
+					continue;
+				}
+
+				// the way to the blocked cell is kept open so a block further ahead can
+				// still be reached
+				if (map.chebyshev(blockedCell, next) > radius) {
+					int nextAhead = path.indexOf(next);
+					if (nextAhead == -1 || nextAhead >= blocked) {
+						continue;
+					}
+				}
+
+				stamp[next] = searchID;
+				distance[next] = distance[cell] + 1;
+				parent[next] = cell;
+				queue[tail++] = next;
+			}
+		}
+
+		if (best == -1) {
+			return null;
+		}
+
+		int length = distance[best];
+		if (detour.length < length) {
+			detour = new int[Math.max(length, detour.length * 2)];
+		}
+		int cell = best;
+		for (int i = length - 1; i >= 0; i--) {
+			detour[i] = cell;
+			cell = parent[cell];
+		}
+		return path.splice(detour, length, bestAhead);
+	}
+
+	private void nextSearch() {
+		expanded = 0;
+		searchID++;
+
+		// the stamps wrapped around so every stale entry has to be cleared
+		if (searchID == 0) {
+			for (int i = 0; i < size; i++) {
+				stamp[i] = 0;
+			}
+			searchID = 1;
+		}
+	}
+}
@@ -0,0 +1,118 @@
+package edu.cwru.sepia.agent;
+
+import java.util.Arrays;
+
+/**
+ * Straightens grid paths so they can be walked with a few long compound moves
+ * instead of one primitive move per cell. In the style of the post-processing
+ * pass of Theta*, each cell of the path is joined straight to the farthest cell
+ * after it that it can see, where a straight line is the cells Bresenham's
+ * algorithm draws between them and it can be seen when none of those cells are
+ * blocked.
+ *
+ * On an 8-connected grid every move costs one turn and a straight line is
+ * already as short as any path between its ends, so smoothing never makes a
+ * path longer. It makes paths from suboptimal planners shorter and turns the
+ * zig-zags of optimal ones into a few straight segments.
+ */
+public class PathSmoother {
+
+	private PathSmoother() {
+	}
+
+	/**
+	 * @param map the map the path was planned on
+	 * @param start the cell the path starts from, not part of the path
+	 * @param path the cells to move to in order
+	 * @return the straightened path, which ends on the same cell and is never
+	 *         longer
+	 */
+	public static int[] smooth(GridMap map, int start, int[] path) {
+		if (path.length < 2) {
+			return path;
+		}
+
+		int[] smoothed = new int[path.length];
+		int length = 0;
+		int anchor = start;
+		int i = 0;
+		while (i < path.length) {
+			// the cell after the anchor is always in sight, so each step moves on
+			int end = i;
+			while (end + 1 < path.length && isVisible(map, anchor, path[end + 1])) {
+				end++;
+			}
+
+			length = walkLine(map, anchor, path[end], smoothed, length);
+			anchor = path[end];
+			i = end + 1;
+		}
+
+		return length == smoothed.length ? smoothed : Arrays.copyOf(smoothed, length);
+	}
+
+	/**
+	 * @param map the map with the units on it
+	 * @param from the cell the footman is standing on
+	 * @param path the moves left on the path
+	 * @return how many moves ahead the last cell of the path is that the footman
+	 *         can walk to in a straight line without taking a longer way than the
+	 *         path, 0 if it can only make the next move
+	 */
+	public static int straightRun(GridMap map, int from, GridPath path) {
+		int ahead = 0;
+		while (ahead + 1 < path.size() && map.chebyshev(from, path.get(ahead + 1)) == ahead + 2
+				&& isVisible(map, from, path.get(ahead + 1))) {
+			ahead++;
+		}
+		return ahead;
+	}
+
+	/**
+	 * @return true if none of the cells on the straight line from a to b are blocked
+	 */
+	public static boolean isVisible(GridMap map, int a, int b) {
+		return walkLine(map, a, b, null, 0) != -1;
+	}
+
+	/**
+	 * steps along the straight line from a to b with Bresenham's algorithm, which
+	 * makes one move to a neighboring cell per step
+	 * @param path the array the cells of the line are appended to, without a, or
+	 *            null to only check that the line is not blocked
+	 * @param length the number of cells already in the path
+	 * @return the new length of the path, or -1 if the path is null and the line
+	 *         is blocked
+	 */
+	private static int walkLine(GridMap map, int a, int b, int[] path, int length) {
+		int x = map.getX(a);
+		int y = map.getY(a);
+		int x1 = map.getX(b);
+		int y1 = map.getY(b);
+
+		int dx = Math.abs(x1 - x);
+		int dy = Math.abs(y1 - y);
+		int sx = Integer.signum(x1 - x);
+		int sy = Integer.signum(y1 - y);
+		int error = dx - dy;
+
+		while (x != x1 || y != y1) {
+			int error2 = 2 * error;
+			if (error2 > -dy) {
+				error -= dy;
+				x += sx;
+			}
+			if (error2 < dx) {
+				error += dx;
+				y += sy;
+			}
+
+			if (path != null) {
+				path[length++] = map.index(x, y);
+			} else if (map.isBlocked(x, y)) {
+				return -1;
+			}
+		}
+		return length;
+	}
+}
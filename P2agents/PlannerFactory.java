@@ -0,0 +1,42 @@
+package edu.cwru.sepia.agent;
+
+/**
+ * Creates the single unit planners by the names the config files and the
+ * benchmarks use for them, so a new planner only has to be added here.
+ */
+public class PlannerFactory {
+
+	private PlannerFactory() {
+	}
+
+	/**
+	 * @param name astar, jps, bidirectional, field, dstarlite, hpa, predictive or
+	 *            anytime
+	 * @param size the number of cells in the map
+	 * @param clusterSize the width of the clusters of hpa
+	 * @param window the number of turns predictive predicts the enemy ahead
+	 * @param budget the most time a search of anytime should take in nanoseconds,
+	 *            or 0 for no limit
+	 * @return the planner, or null if there is none with the name
+	 */
+	public static PathPlanner create(String name, int size, int clusterSize, int window, long budget) {
+		if (name.equals("astar")) {
+			return new AstarPlanner(size);
+		} else if (name.equals("jps")) {
+			return new JpsPlanner(size);
+		} else if (name.equals("bidirectional")) {
+			return new BidirectionalAstarPlanner(size);
+		} else if (name.equals("field")) {
+			return new DistanceFieldPlanner(size);
+		} else if (name.equals("dstarlite")) {
+			return new DStarLitePlanner(size);
+		} else if (name.equals("hpa")) {
+			return new HierarchicalPlanner(size, clusterSize);
+		} else if (name.equals("predictive")) {
+			return new PredictivePlanner(size, window);
+		} else if (name.equals("anytime")) {
+			return new AnytimePlanner(size, budget);
+		}
+		return null;
+	}
+}
@@ -0,0 +1,282 @@
+package edu.cwru.sepia.agent;
+
+/**
+ * A* over (cell, turn) states that routes around where the enemy footman is
+ * expected to be instead of where it is now. The enemy's cells on the last few
+ * turns are extrapolated forward at the same speed and direction, sliding along
+ * walls and stopping when it cannot go on, and the footman may neither step onto
+ * the cell the enemy is predicted to be on nor swap places with it. Waiting in
+ * place is allowed, so the search can let the enemy pass instead of taking a
+ * long way around it.
+ *
+ * Only the next few turns (the horizon) get their own layer of states. Every
+ * state after that is kept in one last layer where the enemy is assumed to have
+ * stopped at its last predicted cell. The rest of the way is estimated with a
+ * distance field from the goal over the static obstacles, so the search stays
+ * close to plain A* when the enemy is not in the way.
+ *
+ * The returned path has one cell per turn, and a cell repeats on the turns the
+ * footman should wait.
+ */
+public class PredictivePlanner implements PathPlanner {
+	private static final int UNREACHABLE = DistanceFieldPlanner.UNREACHABLE;
+
+	private final int size;
+	private final int horizon;
+
+	// state (cell, layer) is node layer * size + cell
+	private final int[] gScore;
+	private final int[] parent;
+	private final int[] stamp;
+	private final boolean[] closed;
+	private final IndexedMinHeap open;
+	private int searchID = 0;
+	private int expanded = 0;
+
+	// the distance field for the map, goal and static obstacles it was built for
+	private final int[] field;
+	private final int[] fieldQueue;
+	private GridMap map;
+	private int goal = -1;
+	private int staticChangeCount;
+
+	// the enemy's cells on the last turns, oldest first
+	private int[] track = new int[0];
+	private int trackCount = 0;
+
+	// the cell the enemy is predicted to be on each turn from now to the horizon,
+	// or -1 when there is no enemy
+	private final int[] predicted;
+
+	/**
+	 * @param size the number of cells in the map
+	 * @param horizon the number of turns the enemy is predicted ahead
+	 */
+	public PredictivePlanner(int size, int horizon) {
+		if (horizon < 1) {
+			throw new IllegalArgumentException("The horizon must be at least one turn");
+		}
+
+		this.size = size;
+		this.horizon = horizon;
+
+		int nodes = size * (horizon + 1);
+		gScore = new int[nodes];
+		parent = new int[nodes];
+		stamp = new int[nodes];
+		closed = new boolean[nodes];
+		open = new IndexedMinHeap(nodes);
+
+		field = new int[size];
+		fieldQueue = new int[size];
+		predicted = new int[horizon + 1];
+	}
+
+	@Override
+	public int getExpanded() {
+		return expanded;
+	}
+
+	@Override
+	public int getRepaired() {
+		return 0;
+	}
+
+	/**
+	 * sets where the enemy has been, used by the next call to findPath
+	 * @param cells the enemy's cell on each of the last turns, oldest first, the
+	 *            last one is where it is now
+	 * @param count the number of cells, 0 if there is no enemy
+	 */
+	public void setEnemyTrack(int[] cells, int count) {
+		if (track.length < count) {
+			track = new int[count];
+		}
+		System.arraycopy(cells, 0, track, 0, count);
+		trackCount = count;
+	}
+
+	/**
+	 * checks the next moves of a path planned earlier against where the enemy is
+	 * expected to go now, using the track set last
+	 * @param map the map the path was planned on
+	 * @param path the moves left, the next one is made on the coming turn
+	 * @param moves the number of moves to check
+	 * @return true if one of the moves runs into or swaps places with the enemy
+	 */
+	public boolean isBlocked(GridMap map, GridPath path, int moves) {
+		predict(map);
+		if (predicted[0] == -1) {
+			return false;
+		}
+
+		for (int i = 0; i < Math.min(moves, path.size()); i++) {
+			int cell = path.get(i);
+			if (cell == predicted[Math.min(i, horizon)] || cell == predicted[Math.min(i + 1, horizon)]) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	@Override
+	public int[] findPath(GridMap map, int start, int goal) {
+		if (map.size() != size) {
+			throw new IllegalArgumentException("Map does not match the size of the planner");
+		}
+		if (map != this.map || goal != this.goal || map.getStaticChangeCount() != staticChangeCount) {
+			this.map = map;
+			this.goal = goal;
+			staticChangeCount = map.getStaticChangeCount();
+			DistanceFieldPlanner.fillField(map, goal, field, fieldQueue);
+		}
+
+		predict(map);
+
+		if (field[start] == UNREACHABLE) {
+			expanded = 0;
+			return null;
+		}
+
+		int[] path = search(map, start, goal, true);
+		if (path == null) {
+			// the enemy is expected to stop where it cuts off the goal, but that is only
+			// a guess, so the path goes through and is replanned if it is still there
+			path = search(map, start, goal, false);
+		}
+		return path;
+	}
+
+	/**
+	 * fills predicted from the track, the enemy keeps moving the way it moved on
+	 * the last turn
+	 */
+	private void predict(GridMap map) {
+		if (trackCount == 0) {
+			for (int t = 0; t <= horizon; t++) {
+				predicted[t] = -1;
+			}
+			return;
+		}
+
+		int x = map.getX(track[trackCount - 1]);
+		int y = map.getY(track[trackCount - 1]);
+
+		// a turn without a move is taken as the enemy waiting for a cell to clear
+		int dx = 0;
+		int dy = 0;
+		for (int i = trackCount - 1; i > 0 && dx == 0 && dy == 0; i--) {
+			dx = Integer.signum(map.getX(track[i]) - map.getX(track[i - 1]));
+			dy = Integer.signum(map.getY(track[i]) - map.getY(track[i - 1]));
+		}
+		predicted[0] = map.index(x, y);
+		for (int t = 1; t <= horizon; t++) {
+			if (dx != 0 && dy != 0 && map.isStaticBlocked(x + dx, y + dy)) {
+				// slide along the wall it ran into
+				if (!map.isStaticBlocked(x + dx, y)) {
+					dy = 0;
+				} else if (!map.isStaticBlocked(x, y + dy)) {
+					dx = 0;
+				}
+			}
+			if (map.isStaticBlocked(x + dx, y + dy)) {
+				dx = 0;
+				dy = 0;
+			}
+
+			x += dx;
+			y += dy;
+			predicted[t] = map.index(x, y);
+		}
+	}
+
+	/**
+	 * @param blockLast true if the enemy blocks its last predicted cell for good
+	 * @return the cells to move to on each turn, or null if there is no path
+	 */
+	private int[] search(GridMap map, int start, int goal, boolean blockLast) {
+		nextSearch();
+
+		int xExtent = map.getXExtent();
+		visit(start, 0, -1);
+		open.update(start, GridSearch.key(0, field[start]));
+
+		while (!open.isEmpty()) {
+			int node = open.poll();
+			int cell = node % size;
+			int layer = node / size;
+
+			// next to the goal, moving onto the cell was already checked against the enemy
+			if (field[cell] == 0) {
+				return reconstructPath(node);
+			}
+
+			closed[node] = true;
+			expanded++;
+
+			int nextLayer = Math.min(layer + 1, horizon);
+			int nextG = gScore[node] + 1;
+
+			// waiting is only worth it while the enemy is still moving
+			int moves = map.staticFreeNeighbors(cell) | (layer < horizon ? 1 << 8 : 0);
+			for (; moves != 0; moves &= moves - 1) {
+				int i = Integer.numberOfTrailingZeros(moves);
+				int next = i == 8 ? cell : cell + GridSearch.DY[i] * xExtent + GridSearch.DX[i];
+				if (next == goal || field[next] == UNREACHABLE || isEnemy(next, layer, blockLast)
+						|| isEnemy(next, nextLayer, blockLast)) {
+					continue;
+				}
+
+				int child = nextLayer * size + next;
+				if (stamp[child] != searchID || (!closed[child] && nextG < gScore[child])) {
+					visit(child, nextG, node);
+					open.update(child, GridSearch.key(nextG, field[next]));
+				}
+			}
+		}
+
+		return null;
+	}
+
+	/**
+	 * @return true if the enemy is expected on the cell on the turn of the layer,
+	 *         checking both the layer the footman leaves and the one it enters
+	 *         also keeps it from swapping places with the enemy
+	 */
+	private boolean isEnemy(int cell, int layer, boolean blockLast) {
+		return predicted[layer] == cell && (layer < horizon || blockLast);
+	}
+
+	private void nextSearch() {
+		open.clear();
+		expanded = 0;
+		searchID++;
+
+		// the stamps wrapped around so every stale entry has to be cleared
+		if (searchID == 0) {
+			for (int i = 0; i < stamp.length; i++) {
+				stamp[i] = 0;
+			}
+			searchID = 1;
+		}
+	}
+
+	private void visit(int node, int g, int from) {
+		if (stamp[node] != searchID) {
+			closed[node] = false;
+		}
+		stamp[node] = searchID;
+		gScore[node] = g;
+		parent[node] = from;
+	}
+
+	private int[] reconstructPath(int end) {
+		int[] path = new int[gScore[end]];
+		int node = end;
+		for (int i = path.length - 1; i >= 0; i--) {
+			path[i] = node % size;
+			node = parent[node];
+		}
+		return path;
+	}
+}
@@ -0,0 +1,267 @@
+package edu.cwru.sepia.agent.minimax;
+
+import java.util.Arrays;
+
+/**
+ * The alpha-beta search below the root, run on one GameState that it makes and
+ * takes back moves on. Each search thread has a searcher of its own, and the
+ * searchers of one agent share its transposition table, which is how the
+ * helper threads of Lazy SMP pass on what they found.
+ */
+public class AlphaBetaSearcher {
+	private final TranspositionTable table;
+
+	// the search gives up once it is past the deadline or stopped from another
+	// thread, and its value is then thrown away
+	private long deadline = Long.MAX_VALUE; // nsecs
+	private volatile boolean stopped = false;
+	private boolean timeUp = false;
+
+	private long nodes = 0;
+	private long probes = 0;
+	private long hits = 0;
+
+	// nodes whose moves were searched, and how many of them were cut off and
+	// cut off by the first move searched
+	private long expanded = 0;
+	private long cutoffs = 0;
+	private long firstMoveCutoffs = 0;
+
+	// the packed entry and move of the last probe
+	private final long[] entry = new long[2];
+
+	// a move generator for each remaining depth, there is only one node at each
+	// depth on the path the search is on
+	private MoveGenerator[] generators = new MoveGenerator[0];
+
+	// move ordering: the last two moves that cut off a node of each side at each
+	// remaining depth, and for each unit and code the sum of the squared depths
+	// of the nodes it cut off, halved every turn so old counts fade
+	private long[][] killers = new long[0][];
+	private final int[][] history = new int[2 * GameState.MAX_SIDE][1 << GameState.CODE_BITS];
+
+	public AlphaBetaSearcher(TranspositionTable table) {
+		this.table = table;
+	}
+
+	/**
+	 * clears the counters and the stop for the next turn
+	 * @param deadline the System.nanoTime the search has to give up at, or
+	 *            Long.MAX_VALUE
+	 */
+	public void reset(long deadline) {
+		this.deadline = deadline;
+		stopped = false;
+		timeUp = false;
+		nodes = 0;
+		probes = 0;
+		hits = 0;
+		expanded = 0;
+		cutoffs = 0;
+		firstMoveCutoffs = 0;
+		for (int[] unitHistory : history) {
+			for (int code = 0; code < unitHistory.length; code++) {
+				unitHistory[code] >>= 1;
+			}
+		}
+	}
+
+	public void setDeadline(long deadline) {
+		this.deadline = deadline;
+	}
+
+	/**
+	 * makes the search give up as soon as it can, from any thread
+	 */
+	public void stop() {
+		stopped = true;
+	}
+
+	/**
+	 * @return true if the last search gave up before it finished
+	 */
+	public boolean isTimeUp() {
+		return timeUp;
+	}
+
+	public long getNodes() {
+		return nodes;
+	}
+
+	public long getProbes() {
+		return probes;
+	}
+
+	public long getHits() {
+		return hits;
+	}
+
+	public long getExpanded() {
+		return expanded;
+	}
+
+	public long getCutoffs() {
+		return cutoffs;
+	}
+
+	public long getFirstMoveCutoffs() {
+		return firstMoveCutoffs;
+	}
+
+	/**
+	 * @return the best move stored in the table for the state, or NO_MOVE
+	 */
+	public long getTableMove(GameState state) {
+		return table.probe(state.getHash(), entry) ? entry[1] : TranspositionTable.NO_MOVE;
+	}
+
+	/**
+	 * @param side the side making the move, 0 for the footmen
+	 * @return the history counters of the units' codes in the move added up
+	 */
+	public int getHistoryScore(GameState state, int side, long move) {
+		int score = 0;
+		int first = state.firstUnit(side);
+		int end = state.firstUnit(side + 1);
+		for (int unit = first; unit < end; unit++, move >>>= GameState.CODE_BITS) {
+			score += history[unit][(int) move & GameState.CODE_MASK];
+		}
+		return score;
+	}
+
+	/**
+	 * alpha-beta search on one state, which is left as it was. A state already
+	 * in the table to at least the same depth is only searched when its bound
+	 * does not settle the window, and the best move stored for it is tried
+	 * first.
+	 * @return the value of the state, the utility of the leaf the search expects
+	 *         both sides to play to
+	 */
+	public double search(GameState state, int depth, double alpha, double beta) {
+		nodes++;
+		if ((nodes & 255) == 0 && (stopped || System.nanoTime() > deadline)) {
+			timeUp = true;
+		}
+		if (timeUp) {
+			// the value is thrown away with the rest of the iteration
+			return 0;
+		}
+		if (depth == 0 || state.isTerminal()) {
+			return state.getUtility();
+		}
+
+		long hash = state.getHash();
+		long tableMove = TranspositionTable.NO_MOVE;
+		probes++;
+		if (table.probe(hash, entry)) {
+			hits++;
+			tableMove = entry[1];
+			if (TranspositionTable.depthOf(entry[0]) >= depth) {
+				int tableValue = TranspositionTable.valueOf(entry[0]);
+				byte bound = TranspositionTable.boundOf(entry[0]);
+				if (bound == TranspositionTable.EXACT) {
+					return tableValue;
+				} else if (bound == TranspositionTable.LOWER_BOUND) {
+					alpha = Math.max(alpha, tableValue);
+				} else {
+					beta = Math.min(beta, tableValue);
+				}
+				if (beta <= alpha) {
+					return tableValue;
+				}
+			}
+		}
+
+		double alphaBefore = alpha;
+		double betaBefore = beta;
+		boolean maximizing = state.getTurnNumber() == 0;
+		double value = maximizing ? Double.NEGATIVE_INFINITY : Double.POSITIVE_INFINITY;
+		long bestMove = TranspositionTable.NO_MOVE;
+
+		// the best move from the table is searched before the other moves are
+		// generated, often it cuts the node off on its own
+		expanded++;
+		int searched = 0;
+		long[] nodeKillers = getKillers(depth, state.getTurnNumber());
+		MoveGenerator moves = getGenerator(depth);
+		moves.reset(state, tableMove, nodeKillers[0], nodeKillers[1]);
+		while (moves.hasNext()) {
+			long move = moves.next();
+			state.applyMove(move);
+			double childValue = search(state, depth - 1, alpha, beta);
+			state.undoMove(move);
+			searched++;
+
+			if (maximizing ? childValue > value : childValue < value) {
+				value = childValue;
+				bestMove = move;
+			}
+			if (maximizing) {
+				alpha = Math.max(alpha, value);
+			} else {
+				beta = Math.min(beta, value);
+			}
+			if (beta <= alpha) {
+				cutoffs++;
+				if (searched == 1) {
+					firstMoveCutoffs++;
+				}
+				recordCutoff(state, depth, move, nodeKillers);
+				break;
+			}
+		}
+
+		if (timeUp) {
+			return 0;
+		}
+		if (searched == 0) {
+			// no move was searched, so there is nothing to store for the state
+			return state.getUtility();
+		}
+
+		// a cutoff only shows the value is at least (or at most) what was found
+		byte bound = value <= alphaBefore ? TranspositionTable.UPPER_BOUND
+				: value >= betaBefore ? TranspositionTable.LOWER_BOUND : TranspositionTable.EXACT;
+		table.store(hash, depth, bound, (int) value, bestMove);
+		return value;
+	}
+
+	/**
+	 * makes the move that cut off the node the first killer at its depth and
+	 * counts it in the history of the codes it is made of
+	 */
+	private void recordCutoff(GameState state, int depth, long move, long[] nodeKillers) {
+		if (nodeKillers[0] != move) {
+			nodeKillers[1] = nodeKillers[0];
+			nodeKillers[0] = move;
+		}
+		int first = state.firstUnit(state.getTurnNumber());
+		int end = state.firstUnit(state.getTurnNumber() + 1);
+		for (int unit = first; unit < end; unit++, move >>>= GameState.CODE_BITS) {
+			history[unit][(int) move & GameState.CODE_MASK] += depth * depth;
+		}
+	}
+
+	private long[] getKillers(int depth, int side) {
+		int index = 2 * depth + side;
+		if (index >= killers.length) {
+			int length = killers.length;
+			killers = Arrays.copyOf(killers, index + 1);
+			for (int i = length; i < killers.length; i++) {
+				killers[i] = new long[] { TranspositionTable.NO_MOVE, TranspositionTable.NO_MOVE };
+			}
+		}
+		return killers[index];
+	}
+
+	private MoveGenerator getGenerator(int depth) {
+		if (depth >= generators.length) {
+			generators = Arrays.copyOf(generators, depth + 1);
+		}
+		if (generators[depth] == null) {
+			generators[depth] = new MoveGenerator();
+			generators[depth].setHistory(history);
+		}
+		return generators[depth];
+	}
+}
@@ -0,0 +1,105 @@
+package edu.cwru.sepia.agent.minimax;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Walking distances over the resources of a map. The resources never move, so
+ * a breadth-first search from a cell over the free cells gives the exact number
+ * of steps from every other cell to it when no units are in the way, where the
+ * Manhattan distance would lead a footman straight into a wall.
+ *
+ * A search is only done the first time a distance to its cell is asked for,
+ * and its result is kept for the rest of the game. The distances asked for are
+ * always to a cell a unit stands on, so only those cells are ever searched
+ * from. The search threads of the agent share the map, a search two threads
+ * start at once is just done twice.
+ */
+class DistanceMap {
+	// 4-connected like the moves of the units
+	private static final int[] DX = { 0, 0, 1, -1 };
+	private static final int[] DY = { -1, 1, 0, 0 };
+
+	// the map the states of the last turn were built on, every turn of a game
+	// builds a new state on the same resources
+	private static DistanceMap last;
+
+	private final int xExtent;
+	private final int yExtent;
+	private final boolean[] blocked;
+
+	// the distance to a cell a unit can not reach, more than any real distance
+	final int unreachable;
+
+	// the distances from every cell to each cell searched from so far, by cell
+	private final AtomicReferenceArray<int[]> fields;
+
+	private DistanceMap(int xExtent, int yExtent, boolean[] blocked) {
+		this.xExtent = xExtent;
+		this.yExtent = yExtent;
+		this.blocked = blocked;
+		unreachable = xExtent * yExtent;
+		fields = new AtomicReferenceArray<int[]>(xExtent * yExtent);
+	}
+
+	/**
+	 * @param blocked the cells with a resource on them, indexed by y * xExtent + x
+	 * @return the distances of the map, the ones of the last map asked for if its
+	 *         resources are the same
+	 */
+	static synchronized DistanceMap forMap(int xExtent, int yExtent, boolean[] blocked) {
+		if (last == null || last.xExtent != xExtent || last.yExtent != yExtent
+				|| !Arrays.equals(last.blocked, blocked)) {
+			last = new DistanceMap(xExtent, yExtent, blocked);
+		}
+		return last;
+	}
+
+	/**
+	 * @return the number of steps between the cells around the resources, or
+	 *         unreachable
+	 */
+	int getDistance(int cell, int other) {
+		int[] field = fields.get(other);
+		if (field == null) {
+			field = fillField(other);
+			fields.set(other, field);
+		}
+		return field[cell];
+	}
+
+	/**
+	 * breadth-first search from the cell over the free cells of the map
+	 * @return the number of steps from each cell to the cell, or unreachable
+	 */
+	private int[] fillField(int goal) {
+		int[] field = new int[xExtent * yExtent];
+		Arrays.fill(field, unreachable);
+
+		// the cells are visited in order of distance, so the queue never holds a
+		// cell twice
+		int[] queue = new int[field.length];
+		int head = 0;
+		int tail = 0;
+		field[goal] = 0;
+		queue[tail++] = goal;
+		while (head < tail) {
+			int cell = queue[head++];
+			int x = cell % xExtent;
+			int y = cell / xExtent;
+			for (int i = 0; i < DX.length; i++) {
+				int x2 = x + DX[i];
+				int y2 = y + DY[i];
+				if (x2 < 0 || x2 >= xExtent || y2 < 0 || y2 >= yExtent) {
+					continue;
+				}
+				int next = y2 * xExtent + x2;
+				if (!blocked[next] && field[next] == unreachable) {
+					field[next] = field[cell] + 1;
+					queue[tail++] = next;
+				}
+			}
+		}
+		return field;
+	}
+}
@@ -0,0 +1,216 @@
+package edu.cwru.sepia.agent.minimax;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import javax.xml.bind.JAXBContext;
+
+import edu.cwru.sepia.environment.model.persistence.generated.XmlPlayer;
+import edu.cwru.sepia.environment.model.persistence.generated.XmlResourceNode;
+import edu.cwru.sepia.environment.model.persistence.generated.XmlState;
+import edu.cwru.sepia.environment.model.persistence.generated.XmlUnit;
+import edu.cwru.sepia.environment.model.state.XmlStateCreator;
+
+/**
+ * Cost of the utility, run without starting Sepia. The maps of the assignment
+ * are read straight from their XML, the two footmen and archers on them are
+ * replaced by more of each at random cells, footmen on the left half and
+ * archers on the right, and random moves are made and taken back on the state
+ * while the utility is asked for after every one.
+ *
+ * For each scenario it prints the time of getUtility, which uses the HP totals
+ * applyMove and undoMove keep and the log table, and of computeUtility, which
+ * adds the HP up from the units and takes the logs itself, each including the
+ * move made or taken back before it, and the number of times the two
+ * disagreed, which must be 0.
+ *
+ * Usage: java edu.cwru.sepia.agent.minimax.EvaluationBenchmark [data directory] [units per side]
+ */
+public class EvaluationBenchmark {
+	private static final String[] MAPS = { "Game2fv2a", "Game2fv2a_Obstacles" };
+	private static final int UNITS = 10;
+	private static final int SEEDS = 3;
+
+	// random walks made on each scenario, each as deep as PLIES or until one
+	// side is dead, and taken back again
+	private static final int WALKS = 20000;
+	private static final int PLIES = 20;
+	private static final int ROUNDS = 5;
+
+	public static void main(String[] args) throws Exception {
+		String dataDirectory = args.length > 0 ? args[0] : "ProgrammingData/Programming3/data";
+		int units = args.length > 1 ? Integer.parseInt(args[1]) : UNITS;
+
+		System.out.println(String.format("%-28s %8s %16s %16s %10s %12s", "scenario", "units", "getUtility (ns)",
+				"compute (ns)", "speedup", "mismatches"));
+		for (String map : MAPS) {
+			for (int seed = 0; seed < SEEDS; seed++) {
+				XmlState xmlState = loadXmlState(new File(dataDirectory, map + ".xml"));
+				placeUnits(xmlState, units, seed);
+				GameState state = new GameState(new XmlStateCreator(xmlState).createState().getView(0));
+
+				long[][] walks = makeWalks(state, new Random(seed));
+				int mismatches = check(state, walks);
+				long utilityTime = Long.MAX_VALUE;
+				long computeTime = Long.MAX_VALUE;
+				for (int round = 0; round < ROUNDS; round++) {
+					long startTime = System.nanoTime();
+					replay(state, walks, false);
+					utilityTime = Math.min(utilityTime, System.nanoTime() - startTime);
+					startTime = System.nanoTime();
+					replay(state, walks, true);
+					computeTime = Math.min(computeTime, System.nanoTime() - startTime);
+				}
+
+				long evaluations = 0;
+				for (long[] walk : walks) {
+					evaluations += 2 * walk.length;
+				}
+				System.out.println(String.format("%-28s %8s %16.1f %16.1f %10.2f %12d", map + " seed " + seed,
+						units + "v" + units, (double) utilityTime / evaluations, (double) computeTime / evaluations,
+						(double) computeTime / utilityTime, mismatches));
+			}
+		}
+	}
+
+	/**
+	 * makes the moves of every walk and asks for the utility after each one, then
+	 * takes them back
+	 * @param fromScratch true to time computeUtility, false to time getUtility
+	 * @return the sum of the utilities, so the JIT can not drop them
+	 */
+	private static long replay(GameState state, long[][] walks, boolean fromScratch) {
+		long sum = 0;
+		for (long[] walk : walks) {
+			for (long move : walk) {
+				state.applyMove(move);
+				sum += fromScratch ? computeUtility(state) : state.getUtility();
+			}
+			for (int ply = walk.length - 1; ply >= 0; ply--) {
+				state.undoMove(walk[ply]);
+				sum += fromScratch ? computeUtility(state) : state.getUtility();
+			}
+		}
+		return sum;
+	}
+
+	/**
+	 * @return the number of moves made or taken back after which getUtility and
+	 *         computeUtility disagreed
+	 */
+	private static int check(GameState state, long[][] walks) {
+		int mismatches = 0;
+		for (long[] walk : walks) {
+			for (long move : walk) {
+				state.applyMove(move);
+				if (state.getUtility() != computeUtility(state)) {
+					mismatches++;
+				}
+			}
+			for (int ply = walk.length - 1; ply >= 0; ply--) {
+				state.undoMove(walk[ply]);
+				if (state.getUtility() != computeUtility(state)) {
+					mismatches++;
+				}
+			}
+		}
+		return mismatches;
+	}
+
+	/**
+	 * @return the utility with the HP totals added up from the units and the
+	 *         logs taken here, which getUtility must always agree with
+	 */
+	private static int computeUtility(GameState state) {
+		int footmenHealth = 0;
+		int archerHealth = 0;
+		for (int unit = 0; unit < state.firstUnit(2); unit++) {
+			int health = Math.max(state.getHealth(unit), 0);
+			if (unit < state.firstUnit(1)) {
+				footmenHealth += health;
+			} else {
+				archerHealth += health;
+			}
+		}
+		return (int) (GameState.healthTerm(footmenHealth) - GameState.healthTerm(archerHealth)
+				- state.getFootmanDistance());
+	}
+
+	/**
+	 * random walks from the state, each unit attacks or steps at random and stays
+	 * where it is if it would step onto the cell of a unit before it
+	 */
+	private static long[][] makeWalks(GameState state, Random random) {
+		long[][] walks = new long[WALKS][];
+		int[] codes = new int[1 << GameState.CODE_BITS];
+		int[] keys = new int[codes.length];
+		List<Long> walk = new ArrayList<Long>();
+		for (int i = 0; i < WALKS; i++) {
+			walk.clear();
+			while (walk.size() < PLIES && !state.isTerminal()) {
+				int first = state.firstUnit(state.getTurnNumber());
+				int end = state.firstUnit(state.getTurnNumber() + 1);
+				long move = 0;
+				for (int unit = first; unit < end; unit++) {
+					int count = state.getUnitMoves(unit, codes, keys);
+					int code = count == 0 ? GameState.STAY : codes[random.nextInt(count)];
+					if (!state.isCollision(move, first, unit, code)) {
+						move |= (long) code << (unit - first) * GameState.CODE_BITS;
+					}
+				}
+				state.applyMove(move);
+				walk.add(move);
+			}
+
+			walks[i] = new long[walk.size()];
+			for (int ply = walk.size() - 1; ply >= 0; ply--) {
+				walks[i][ply] = walk.get(ply);
+				state.undoMove(walk.get(ply));
+			}
+		}
+		return walks;
+	}
+
+	/**
+	 * replaces the units of both players with copies of their first unit on free
+	 * cells, the footmen on the left half of the map and the archers on the right
+	 */
+	static void placeUnits(XmlState xmlState, int units, long seed) {
+		int xExtent = xmlState.getXExtent();
+		int yExtent = xmlState.getYExtent();
+		boolean[] taken = new boolean[xExtent * yExtent];
+		for (XmlResourceNode resourceNode : xmlState.getResourceNode()) {
+			taken[resourceNode.getYPosition() * xExtent + resourceNode.getXPosition()] = true;
+		}
+
+		Random random = new Random(seed);
+		int nextID = 0;
+		for (XmlPlayer player : xmlState.getPlayer()) {
+			XmlUnit template = player.getUnit().get(0);
+			player.getUnit().clear();
+			int left = player.getID() == 0 ? 0 : xExtent / 2;
+			for (int i = 0; i < units; i++) {
+				int cell;
+				do {
+					cell = random.nextInt(yExtent) * xExtent + left + random.nextInt(xExtent / 2);
+				} while (taken[cell]);
+				taken[cell] = true;
+
+				XmlUnit unit = new XmlUnit();
+				unit.setID(nextID++);
+				unit.setCurrentHealth(template.getCurrentHealth());
+				unit.setXPosition(cell % xExtent);
+				unit.setYPosition(cell / xExtent);
+				unit.setTemplateID(template.getTemplateID());
+				player.getUnit().add(unit);
+			}
+		}
+		xmlState.setNextTargetID(nextID);
+	}
+
+	static XmlState loadXmlState(File file) throws Exception {
+		return (XmlState) JAXBContext.newInstance(XmlState.class).createUnmarshaller().unmarshal(file);
+	}
+}
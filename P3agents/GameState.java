@@ -1,21 +1,15 @@
 package edu.cwru.sepia.agent.minimax;
 
-import java.io.IOException;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Random;
 
 import edu.cwru.sepia.action.Action;
-import edu.cwru.sepia.action.ActionType;
-import edu.cwru.sepia.action.LocatedAction;
-import edu.cwru.sepia.action.TargetedAction;
 import edu.cwru.sepia.environment.model.state.ResourceNode.ResourceView;
 import edu.cwru.sepia.environment.model.state.State;
-import edu.cwru.sepia.environment.model.state.State.StateView;
-import edu.cwru.sepia.environment.model.state.Unit;
 import edu.cwru.sepia.environment.model.state.Unit.UnitView;
-import edu.cwru.sepia.environment.model.state.UnitTemplate;
 import edu.cwru.sepia.util.Direction;
 
 /**
@@ -25,37 +19,100 @@ import edu.cwru.sepia.util.Direction;
  *
  * Add any information or methods you would like to this class, but do not
  * delete or change the signatures of the provided methods.
+ *
+ * The units are kept in small int arrays, footmen first and then archers, so
+ * the search can make a move on one state and take it back again instead of
+ * building a new SEPIA state for every node. A move of one side is packed into
+ * a long with CODE_BITS bits for each unit of the side, in the order of the
+ * units: STAY, one of the four directions, or an attack on the unit of the
+ * other side with index code - ATTACK.
+ *
+ * The state also keeps a Zobrist hash of the unit positions, HPs and the side
+ * to move, which applyMove and undoMove update with a few XORs for the units
+ * the move changes. The keys of a unit come from a generator seeded with its
+ * ID, so a state has the same hash on every turn.
  */
 public class GameState {
-	//
-	// instance fields
-	//
+	// the directions a unit can move in, indexed by move code
+	private static final Direction[] DIRECTIONS = { null, Direction.NORTH, Direction.SOUTH, Direction.EAST,
+			Direction.WEST };
+	private static final int[] DX = new int[DIRECTIONS.length];
+	private static final int[] DY = new int[DIRECTIONS.length];
+
+	static {
+		for (int code = 1; code < DIRECTIONS.length; code++) {
+			DX[code] = DIRECTIONS[code].xComponent();
+			DY[code] = DIRECTIONS[code].yComponent();
+		}
+	}
 
-	// state
-	State.StateView state;
+	// move codes of a single unit
+	static final int STAY = 0;
+	static final int ATTACK = DIRECTIONS.length;
+	static final int CODE_BITS = 4;
+	static final int CODE_MASK = (1 << CODE_BITS) - 1;
 
-	// player numbers
-	private int enemyPlayerNum = 1;
+	// the most units of the other side a unit can tell apart as targets, and the
+	// most units of one side that fit in a move
+	static final int MAX_TARGETS = (1 << CODE_BITS) - ATTACK;
+	static final int MAX_SIDE = Long.SIZE / CODE_BITS;
 
-	// map dimensions
-	private int xExtent;
-	private int yExtent;
+	// added to the order key of a step so steps come after every attack
+	private static final int STEP_KEY = 1 << 20;
 
-	// resource nodes
-	private List<ResourceView> resourceNodes;
+	// weight of the log of the total HP of each side in the utility
+	private static final double HEALTH_WEIGHT = 30;
 
-	// map layout
-	private boolean[][] map;
+	// Zobrist keys, the ones of each unit are drawn from ZOBRIST_SEED and its ID
+	private static final long ZOBRIST_SEED = 0x5DEECE66DL;
+	private static final long SIDE_KEY = new Random(ZOBRIST_SEED).nextLong();
 
-	// units
-	private List<UnitView> allUnits;
-	private List<UnitView> footmanUnits = new ArrayList<UnitView>();
-	private List<UnitView> enemyUnits = new ArrayList<UnitView>();
-
-	private int utility;
+	//
+	// instance fields
+	//
 
+	// map dimensions
+	private final int xExtent;
+	private final int yExtent;
+
+	// cells with a resource on them, indexed by y * xExtent + x, shared by every
+	// copy of the state
+	private final boolean[] blocked;
+
+	// walking distances around the resources, shared by every copy of the state
+	// and every turn on the same map
+	private final DistanceMap distances;
+
+	// what never changes about the units, shared by every copy of the state
+	private final int footmanCount;
+	private final int unitCount;
+	private final int[] unitIDs;
+	private final int[] damage;
+	private final int[] range;
+
+	// a unit with no HP left is dead and takes no part in the game
+	private final int[] hp;
+	private final int[] x;
+	private final int[] y;
+
+	// 0 when the footmen move next, 1 when the archers do
 	private int turnNumber;
-	
+
+	// keys of each unit for each cell and for each HP from 0 to its base health,
+	// shared by every copy of the state
+	private final long[][] cellKeys;
+	private final long[][] healthKeys;
+	private long hash;
+
+	// the move getChildren made to reach this state from its parent
+	private long lastMove = TranspositionTable.NO_MOVE;
+
+	// HEALTH_WEIGHT * log(1 + h) for every total HP h a side can have, shared by
+	// every copy of the state, and the total HP of each side, kept up to date by
+	// applyMove and undoMove
+	private final double[] logHealth;
+	private int footmenHealth;
+	private int archerHealth;
 
 	/**
 	 * You will implement this constructor. It will extract all of the needed state
@@ -81,43 +138,115 @@ public class GameState {
 	 *            Current state of the episode
 	 */
 	public GameState(State.StateView state) {
+		// the agent is only asked for actions on its own turn
+		turnNumber = 0;
 
-		// current state
-		this.state = state;
-		
-		this.turnNumber = (state.getTurnNumber() % 2);
-		
 		// get the map dimensions
 		xExtent = state.getXExtent();
 		yExtent = state.getYExtent();
 
-		// get all resource nodes
-		resourceNodes = state.getAllResourceNodes();
+		// identify resource positions
+		blocked = new boolean[xExtent * yExtent];
+		for (ResourceView resourceNode : state.getAllResourceNodes()) {
+			blocked[resourceNode.getYPosition() * xExtent + resourceNode.getXPosition()] = true;
+		}
+		distances = DistanceMap.forMap(xExtent, yExtent, blocked);
 
-		// build map
-		map = new boolean[xExtent][yExtent];
-		for (int x = 0; x < xExtent; x++) {
-			for (int y = 0; y < yExtent; y++) {
-				map[x][y] = false;
+		// get all units and classify them, footmen first
+		List<UnitView> units = new ArrayList<UnitView>();
+		for (UnitView unit : state.getAllUnits()) {
+			if (unit.getTemplateView().getPlayer() != 1) {
+				units.add(unit);
+			}
+		}
+		footmanCount = units.size();
+		for (UnitView unit : state.getAllUnits()) {
+			if (unit.getTemplateView().getPlayer() == 1) {
+				units.add(unit);
 			}
 		}
+		unitCount = units.size();
+		if (footmanCount > MAX_SIDE || unitCount - footmanCount > MAX_SIDE) {
+			throw new IllegalArgumentException("At most " + MAX_SIDE + " units per side fit in a move");
+		}
 
-		// identify resource positions
-		for (ResourceView resourceNode : resourceNodes) {
-			map[resourceNode.getXPosition()][resourceNode.getYPosition()] = true;
+		unitIDs = new int[unitCount];
+		damage = new int[unitCount];
+		range = new int[unitCount];
+		hp = new int[unitCount];
+		x = new int[unitCount];
+		y = new int[unitCount];
+		for (int i = 0; i < unitCount; i++) {
+			UnitView unit = units.get(i);
+			unitIDs[i] = unit.getID();
+			damage[i] = unit.getTemplateView().getBasicAttack();
+			range[i] = unit.getTemplateView().getRange();
+			hp[i] = unit.getHP();
+			x[i] = unit.getXPosition();
+			y[i] = unit.getYPosition();
 		}
 
-		// get all units and classify them
-		allUnits = state.getAllUnits();
-		for (UnitView unit : allUnits) {
-			if (unit.getTemplateView().getPlayer() == 1) {
-				enemyUnits.add(unit);
+		cellKeys = new long[unitCount][xExtent * yExtent];
+		healthKeys = new long[unitCount][];
+		for (int i = 0; i < unitCount; i++) {
+			Random random = new Random(ZOBRIST_SEED * 31 + unitIDs[i]);
+			for (int cell = 0; cell < cellKeys[i].length; cell++) {
+				cellKeys[i][cell] = random.nextLong();
+			}
+			healthKeys[i] = new long[Math.max(hp[i], units.get(i).getTemplateView().getBaseHealth()) + 1];
+			for (int health = 0; health < healthKeys[i].length; health++) {
+				healthKeys[i][health] = random.nextLong();
+			}
+			hash ^= cellKeys[i][y[i] * xExtent + x[i]] ^ healthKey(i);
+		}
+
+		int maxHealth = 0;
+		for (int i = 0; i < unitCount; i++) {
+			maxHealth += healthKeys[i].length - 1;
+			if (i < footmanCount) {
+				footmenHealth += Math.max(hp[i], 0);
 			} else {
-				footmanUnits.add(unit);
+				archerHealth += Math.max(hp[i], 0);
 			}
 		}
+		logHealth = new double[maxHealth + 1];
+		for (int health = 0; health < logHealth.length; health++) {
+			logHealth[health] = healthTerm(health);
+		}
+	}
 
-		utility = getUtility();
+	/**
+	 * copies the units of another state, the map and the parts of the units that
+	 * never change are shared
+	 */
+	private GameState(GameState other) {
+		xExtent = other.xExtent;
+		yExtent = other.yExtent;
+		blocked = other.blocked;
+		distances = other.distances;
+		footmanCount = other.footmanCount;
+		unitCount = other.unitCount;
+		unitIDs = other.unitIDs;
+		damage = other.damage;
+		range = other.range;
+		hp = other.hp.clone();
+		x = other.x.clone();
+		y = other.y.clone();
+		turnNumber = other.turnNumber;
+		cellKeys = other.cellKeys;
+		healthKeys = other.healthKeys;
+		hash = other.hash;
+		logHealth = other.logHealth;
+		footmenHealth = other.footmenHealth;
+		archerHealth = other.archerHealth;
+	}
+
+	/**
+	 * @return a copy of the state that moves can be made on without changing this
+	 *         one
+	 */
+	GameState copy() {
+		return new GameState(this);
 	}
 
 	/**
@@ -138,43 +267,57 @@ public class GameState {
 	 * Add a good comment about what is in your utility and why you chose those
 	 * features.
 	 *
+	 * The utility is higher the better the state is for the footmen:
+	 * 30 * log(1 + HF) - 30 * log(1 + HA) - D, where HF and HA are the total HP
+	 * of the footmen and of the archers, and D is the sum over the footmen of the
+	 * walking distance to the closest archer around the resources. Because of the
+	 * logs a point of damage counts for more the less HP a side has left, so
+	 * finishing off the archers is worth more than trading hits with them, and
+	 * the distance pulls the footmen in while no archer is in reach. The
+	 * Manhattan distance would pull a footman into a wall of resources between it
+	 * and an archer, the walking distances of DistanceMap lead it around.
+	 *
+	 * The HP totals are kept up to date by applyMove and undoMove for the units
+	 * a move attacks and their logs are looked up in a table, so only the closest
+	 * archers are found here. Keeping those up to date in applyMove as well costs
+	 * more than finding them, since every unit of a side moves on every ply.
+	 *
 	 * @return The weighted linear combination of the features
 	 */
 	public int getUtility() {
-		// minimize distance between footmen and closest enemy archer (D)
-		// D = min(Abs(x distance) + Abs(y distance))
-		// minimize archer's total hp (HA)
-		// HA = sum of all Archers' health
-		// maximize footmen's total hp (HF)
-		// HF = sum of all Footmen's health
+		return (int) (logHealth[footmenHealth] - logHealth[archerHealth] - getFootmanDistance());
+	}
 
-		// Beginning HA = 50, HF = 160
+	/**
+	 * @return the term of the utility for a side with the total HP, what the log
+	 *         table holds
+	 */
+	static double healthTerm(int health) {
+		return HEALTH_WEIGHT * Math.log(1 + health);
+	}
 
-		// Utility = HF - D - HA
+	/**
+	 * @return the sum over the living footmen of the walking distance to the
+	 *         closest living archer, 0 once the archers are dead
+	 */
+	int getFootmanDistance() {
+		if (archerHealth <= 0) {
+			return 0;
+		}
 		int distance = 0;
-
-		int footmenHealth = 0;
-		int enemyHealth = 0;
-		for (UnitView footman : footmanUnits) {
-			int minDistance = this.xExtent + this.yExtent;
-			for (UnitView enemy : enemyUnits) {
-				int d = Math.abs(footman.getXPosition() - enemy.getXPosition())
-						+ Math.abs(footman.getYPosition() - enemy.getYPosition());
-				if (d < minDistance) {
-					minDistance = d;
+		for (int footman = 0; footman < footmanCount; footman++) {
+			if (hp[footman] <= 0) {
+				continue;
+			}
+			int minDistance = Integer.MAX_VALUE;
+			for (int archer = footmanCount; archer < unitCount; archer++) {
+				if (hp[archer] > 0) {
+					minDistance = Math.min(minDistance, getDistance(footman, archer));
 				}
 			}
 			distance += minDistance;
-
-			footmenHealth += footman.getHP();
-		}
-
-		for (UnitView enemy : enemyUnits) {
-			enemyHealth += enemy.getHP();
 		}
-		this.utility = distance + enemyHealth - footmenHealth;
-		this.utility = (int)(distance + 30 * Math.log(enemyHealth) - 30 * Math.log(footmenHealth));
-		return utility;
+		return distance;
 	}
 
 	/**
@@ -195,237 +338,97 @@ public class GameState {
 	 */
 	public List<GameStateChild> getChildren() {
 		List<GameStateChild> children = new ArrayList<GameStateChild>();
-		List<List<Action>> agentActions = new ArrayList<List<Action>>();
-
-		// footman turn
-		if (this.getTurnNumber() == 0) {
-			// footman helper method
-			for (UnitView footman : footmanUnits) {
-				agentActions.add(footmanChildren(footman));
-			}
+		MoveGenerator moves = new MoveGenerator();
+		moves.reset(this);
+		while (moves.hasNext()) {
+			long move = moves.next();
+			GameState child = new GameState(this);
+			child.applyMove(move);
+			child.lastMove = move;
+			children.add(new GameStateChild(getActions(move), child));
 		}
-
-		// archer turn
-		else {
-			// archer helper method
-			for (UnitView archer : enemyUnits) {
-				agentActions.add(archerChildren(archer));
-			}
-		}
-		
-		
-		children = finalChildrenStates(agentActions);
 		return children;
 	}
 
-	// generate list of moves for an individual archer
-	private List<Action> archerChildren(UnitView archer) {
-		List<Action> actions = new ArrayList<Action>();
-
-		int x = archer.getXPosition();
-		int y = archer.getYPosition();
-		int id = archer.getID();
-		int range = archer.getTemplateView().getRange();
+	/**
+	 * @return true once every footman or every archer is dead
+	 */
+	public boolean isTerminal() {
+		return isSideDead(0, footmanCount) || isSideDead(footmanCount, unitCount);
+	}
 
-		// check if an footman is within range
-		for (UnitView footman : footmanUnits) {
-			if (Math.abs(footman.getXPosition() - x) + Math.abs(footman.getYPosition() - y) <= range) {
-				actions.add(Action.createCompoundAttack(id, footman.getID()));
-			}
-		}
-		List<Direction> directions = new ArrayList<Direction>();
-		directions.add(Direction.NORTH);
-		directions.add(Direction.SOUTH);
-		directions.add(Direction.EAST);
-		directions.add(Direction.WEST);
-
-		for (Direction direction : directions) {
-			int x2 = x + direction.xComponent();
-			int y2 = y + direction.yComponent();
-
-			// check if move is within the bounds and is not over a resource
-			if (legalMove(x2, y2) && !map[x2][y2]) {
-				actions.add(Action.createCompoundMove(id, x2, y2));
+	/**
+	 * makes the move of the side whose turn it is, then it is the other side's
+	 * turn
+	 */
+	void applyMove(long move) {
+		int first = firstUnit(turnNumber);
+		int end = firstUnit(turnNumber + 1);
+		int targets = firstUnit(turnNumber ^ 1);
+		for (int unit = first; unit < end; unit++, move >>>= CODE_BITS) {
+			int code = (int) move & CODE_MASK;
+			if (code >= ATTACK) {
+				int target = targets + code - ATTACK;
+				hash ^= healthKey(target);
+				hp[target] -= damage[unit];
+				hash ^= healthKey(target);
+				updateHealth(target, hp[target] + damage[unit]);
+			} else if (code != STAY) {
+				hash ^= cellKey(unit);
+				x[unit] += DX[code];
+				y[unit] += DY[code];
+				hash ^= cellKey(unit);
 			}
 		}
-
-		return actions;
+		turnNumber ^= 1;
+		hash ^= SIDE_KEY;
 	}
 
-	// generate list of moves for individual footman
-	private List<Action> footmanChildren(UnitView footman) {
-		List<Action> actions = new ArrayList<Action>();
-
-		int x = footman.getXPosition();
-		int y = footman.getYPosition();
-		int id = footman.getID();
-
-		// check if an enemy is next to the footman
-		for (UnitView enemy : enemyUnits) {
-			if (Math.abs(enemy.getXPosition() - x) == 1 ^ Math.abs(enemy.getYPosition() - y) == 1) {
-				actions.add(new TargetedAction(id, (Action.createCompoundAttack(id, enemy.getID()).getType()),
-						enemy.getID()));
-			}
-		}
-		List<Direction> directions = new ArrayList<Direction>();
-		directions.add(Direction.NORTH);
-		directions.add(Direction.SOUTH);
-		directions.add(Direction.EAST);
-		directions.add(Direction.WEST);
-		for (Direction direction : directions) {
-			int x2 = x + direction.xComponent();
-			int y2 = y + direction.yComponent();
-
-			// check if move is within the bounds and is not over a resource
-			if (legalMove(x2, y2) && !map[x2][y2]) {
-				actions.add(Action.createCompoundMove(id, x2, y2));
+	/**
+	 * takes back the move applyMove made last
+	 */
+	void undoMove(long move) {
+		turnNumber ^= 1;
+		hash ^= SIDE_KEY;
+		int first = firstUnit(turnNumber);
+		int end = firstUnit(turnNumber + 1);
+		int targets = firstUnit(turnNumber ^ 1);
+		for (int unit = first; unit < end; unit++, move >>>= CODE_BITS) {
+			int code = (int) move & CODE_MASK;
+			if (code >= ATTACK) {
+				int target = targets + code - ATTACK;
+				hash ^= healthKey(target);
+				hp[target] += damage[unit];
+				hash ^= healthKey(target);
+				updateHealth(target, hp[target] - damage[unit]);
+			} else if (code != STAY) {
+				hash ^= cellKey(unit);
+				x[unit] -= DX[code];
+				y[unit] -= DY[code];
+				hash ^= cellKey(unit);
 			}
 		}
-
-		return actions;
 	}
 
-	// creates a new game state that is determined by the actions of the child
-	private GameState createNewGameState(Map<Integer, Action> actions) {
-		State stateHolder = null;
-		State.StateView newState = null;
-		try {
-			stateHolder = this.state.getStateCreator().createState();
-<<<<<<< HEAD
-			//stateHolder.incrementTurn();
-=======
->>>>>>> a65ccf1640e6e5d29ef8c7288e96ec9a846f1c2f
-			newState = stateHolder.getView(this.getTurnNumber());
-		} catch (IOException e) {
-			// TODO Auto-generated catch block
-			e.printStackTrace();
-		}
-		
-		//changes the turn for the children states
-		GameState newGameState = new GameState(newState);
-		newGameState.setTurnNumber(this.switchTurnNumber());
-		
-
-		for (Action action : actions.values()) {
-			//changes the state if an agent is attacking
-			if (action.getType() == ActionType.COMPOUNDATTACK) {
-				boolean attackingEnemy = false;
-				int targetID = ((TargetedAction) action).getTargetId();
-				int attackerID = ((TargetedAction) action).getUnitId();
-				UnitView target = null;
-				UnitView attacker = null;
-				for (UnitView enemy : newGameState.getEnemyUnits()) {
-					if (enemy.getID() == targetID) {
-						attackingEnemy = true;
-						target = enemy;
-					}
-					if (enemy.getID() == attackerID) {
-						attackingEnemy = false;
-						attacker = enemy;
-					}
-				}
-				for (UnitView footman : newGameState.getFootmanUnits()) {
-					if (footman.getID() == targetID) {
-						attackingEnemy = false;
-						target = footman;
-					}
-					if (footman.getID() == attackerID) {
-						attackingEnemy = true;
-						attacker = footman;
-					}
-				}
-
-				int attackAmount = attacker.getTemplateView().getBasicAttack();
-
-				if (attackingEnemy) {
-					UnitView enemyUnit = newGameState.state.getUnit(target.getID());
-					UnitTemplate newEnemyTemplate = new UnitTemplate(enemyUnit.getID());
-
-					// set name, basic attack, attack range
-					newEnemyTemplate.setPlayer(enemyUnit.getTemplateView().getPlayer());
-					newEnemyTemplate.setName(enemyUnit.getTemplateView().getName());
-					newEnemyTemplate.setBasicAttack(enemyUnit.getTemplateView().getBasicAttack());
-					newEnemyTemplate.setRange(enemyUnit.getTemplateView().getRange());
-
-					Unit newEnemy = new Unit(newEnemyTemplate, enemyUnit.getID());
-					newEnemy.setHP(enemyUnit.getHP() - attackAmount);
-					newEnemy.setxPosition(enemyUnit.getXPosition());
-					newEnemy.setyPosition(enemyUnit.getYPosition());
-					UnitView newEnemyUnitView = new UnitView(newEnemy);
-					newGameState.getEnemyUnits().remove(enemyUnit);
-					newGameState.getEnemyUnits().add(newEnemyUnitView);
-				} else {
-					// figure out how to change HP
-					// remove from enemyUnits and add the new enemy to the list
-					UnitView footmanUnit = newGameState.state.getUnit(target.getID());
-					UnitTemplate newFootmanTemplate = new UnitTemplate(footmanUnit.getID());
-
-					// set name, basic attack, attack range
-					newFootmanTemplate.setPlayer(footmanUnit.getTemplateView().getPlayer());
-					newFootmanTemplate.setName(footmanUnit.getTemplateView().getName());
-					newFootmanTemplate.setBasicAttack(footmanUnit.getTemplateView().getBasicAttack());
-					newFootmanTemplate.setRange(footmanUnit.getTemplateView().getRange());
-
-					Unit newFootman = new Unit(newFootmanTemplate, footmanUnit.getID());
-					newFootman.setHP(footmanUnit.getHP() - attackAmount);
-					newFootman.setxPosition(footmanUnit.getXPosition());
-					newFootman.setyPosition(footmanUnit.getYPosition());
-					UnitView newFootmanUnitView = new UnitView(newFootman);
-					newGameState.getFootmanUnits().remove(footmanUnit);
-					newGameState.getFootmanUnits().add(newFootmanUnitView);
-				}	
-			} 
-			//changes the state if an agent is moving
-			else if (action.getType() == ActionType.COMPOUNDMOVE) {
-				// footman's turn
-				int currentFootmanID = action.getUnitId();
-				if (newGameState.getTurnNumber() == 0) {
-					UnitView footmanUnit = newGameState.state.getUnit(currentFootmanID);
-					UnitTemplate newFootmanTemplate = new UnitTemplate(footmanUnit.getID());
-					
-					int newX = ((LocatedAction) action).getX();
-					int newY = ((LocatedAction) action).getY();
-					
-					// set name, basic attack, attack range
-					newFootmanTemplate.setPlayer(footmanUnit.getTemplateView().getPlayer());
-					newFootmanTemplate.setName(footmanUnit.getTemplateView().getName());
-					newFootmanTemplate.setBasicAttack(footmanUnit.getTemplateView().getBasicAttack());
-					newFootmanTemplate.setRange(footmanUnit.getTemplateView().getRange());
-
-					Unit newFootman = new Unit(newFootmanTemplate, footmanUnit.getID());
-					newFootman.setHP(footmanUnit.getHP());
-					newFootman.setxPosition(newX);
-					newFootman.setyPosition(newY);
-					UnitView newFootmanUnitView = new UnitView(newFootman);
-					newGameState.getFootmanUnits().remove(footmanUnit);
-					newGameState.getFootmanUnits().add(newFootmanUnitView);
-				}
-				// enemy's turn
-				else if (newGameState.getTurnNumber() == 1) {
-					UnitView enemyUnit = newGameState.state.getUnit(currentFootmanID);
-					UnitTemplate newEnemyTemplate = new UnitTemplate(enemyUnit.getID());
-
-					// set name, basic attack, attack range
-					newEnemyTemplate.setPlayer(enemyUnit.getTemplateView().getPlayer());
-					newEnemyTemplate.setName(enemyUnit.getTemplateView().getName());
-					newEnemyTemplate.setBasicAttack(enemyUnit.getTemplateView().getBasicAttack());
-					newEnemyTemplate.setRange(enemyUnit.getTemplateView().getRange());
-					
-					int newX = ((LocatedAction) action).getX();
-					int newY = ((LocatedAction) action).getY();
-					
-					Unit newEnemy = new Unit(newEnemyTemplate, enemyUnit.getID());
-					newEnemy.setHP(enemyUnit.getHP());
-					newEnemy.setxPosition(newX);
-					newEnemy.setyPosition(newY);
-					UnitView newEnemyUnitView = new UnitView(newEnemy);
-					newGameState.getEnemyUnits().remove(enemyUnit);
-					newGameState.getEnemyUnits().add(newEnemyUnitView);
-				}
+	/**
+	 * @return the SEPIA actions that carry out a move of the side whose turn it is
+	 */
+	Map<Integer, Action> getActions(long move) {
+		Map<Integer, Action> actions = new HashMap<Integer, Action>();
+		int first = firstUnit(turnNumber);
+		int end = firstUnit(turnNumber + 1);
+		int targets = firstUnit(turnNumber ^ 1);
+		for (int unit = first; unit < end; unit++, move >>>= CODE_BITS) {
+			int code = (int) move & CODE_MASK;
+			if (code >= ATTACK) {
+				actions.put(unitIDs[unit],
+						Action.createCompoundAttack(unitIDs[unit], unitIDs[targets + code - ATTACK]));
+			} else if (code != STAY) {
+				actions.put(unitIDs[unit],
+						Action.createCompoundMove(unitIDs[unit], x[unit] + DX[code], y[unit] + DY[code]));
 			}
 		}
-
-		return newGameState;
+		return actions;
 	}
 
 	public int getxExtent() {
@@ -436,77 +439,196 @@ public class GameState {
 		return yExtent;
 	}
 
-	public List<ResourceView> getResourceNodes() {
-		return resourceNodes;
+	public int getTurnNumber() {
+		return turnNumber;
 	}
 
-	public List<UnitView> getFootmanUnits() {
-		return footmanUnits;
+	/**
+	 * @return the move getChildren made to reach this state, or NO_MOVE for a
+	 *         state that is not a child
+	 */
+	long getLastMove() {
+		return lastMove;
 	}
 
-	public List<UnitView> getEnemyUnits() {
-		return enemyUnits;
+	/**
+	 * @return the Zobrist hash of the unit positions, HPs and side to move
+	 */
+	long getHash() {
+		return hash;
 	}
 
-	public int getTurnNumber() {
-		return this.turnNumber;
+	/**
+	 * fills codes with the attacks and steps the unit can make, a dead unit has
+	 * none. The codes are in the order the search should try them: attacks on the
+	 * weakest unit first, then the steps a footman closes in with or an archer
+	 * gets away with, so a move made of the first code of every unit is a good
+	 * guess without building and scoring every move
+	 * @param keys scratch space for the order of the codes, as long as codes
+	 * @return the number of codes
+	 */
+	int getUnitMoves(int unit, int[] codes, int[] keys) {
+		int count = 0;
+		if (hp[unit] <= 0) {
+			return count;
+		}
+
+		// check if a unit of the other side is within range, SEPIA measures attack
+		// range as the larger of the x and y distance
+		int targets = firstUnit(turnNumber ^ 1);
+		int targetsEnd = Math.min(firstUnit((turnNumber ^ 1) + 1), targets + MAX_TARGETS);
+		for (int target = targets; target < targetsEnd; target++) {
+			if (hp[target] > 0
+					&& Math.max(Math.abs(x[target] - x[unit]), Math.abs(y[target] - y[unit])) <= range[unit]) {
+				keys[count] = hp[target];
+				codes[count++] = ATTACK + target - targets;
+			}
+		}
+
+		for (int code = 1; code < ATTACK; code++) {
+			int x2 = x[unit] + DX[code];
+			int y2 = y[unit] + DY[code];
+			// check if move is within the bounds and is not over a resource or a unit
+			if (isLegalMove(x2, y2) && !blocked[y2 * xExtent + x2] && !isOccupied(x2, y2)) {
+				int distance = getEnemyDistance(x2, y2, targets);
+				keys[count] = STEP_KEY + (turnNumber == 0 ? distance : -distance);
+				codes[count++] = code;
+			}
+		}
+
+		// insertion sort on the keys, a unit has at most a dozen codes
+		for (int i = 1; i < count; i++) {
+			int code = codes[i];
+			int key = keys[i];
+			int j = i - 1;
+			while (j >= 0 && keys[j] > key) {
+				codes[j + 1] = codes[j];
+				keys[j + 1] = keys[j];
+				j--;
+			}
+			codes[j + 1] = code;
+			keys[j + 1] = key;
+		}
+		return count;
 	}
-	
-	public void setTurnNumber(int turnNumber) {
-		this.turnNumber = turnNumber;
+
+	/**
+	 * @return the walking distance from the cell to the closest living unit of
+	 *         the side starting at targets, 0 if they are all dead
+	 */
+	private int getEnemyDistance(int cellX, int cellY, int targets) {
+		int targetsEnd = targets == 0 ? footmanCount : unitCount;
+		int minDistance = Integer.MAX_VALUE;
+		for (int target = targets; target < targetsEnd; target++) {
+			if (hp[target] > 0) {
+				minDistance = Math.min(minDistance,
+						distances.getDistance(cellY * xExtent + cellX, y[target] * xExtent + x[target]));
+			}
+		}
+		return minDistance == Integer.MAX_VALUE ? 0 : minDistance;
 	}
-	
-<<<<<<< HEAD
-=======
-	//returns the opposite of the turn
->>>>>>> a65ccf1640e6e5d29ef8c7288e96ec9a846f1c2f
-	public int switchTurnNumber() {
-		if(this.turnNumber == 0) {
-			return 1;
+
+	/**
+	 * @return true if the unit stepping with the code would end on the same cell
+	 *         as one of the units before it in the partial move, a dead unit is on
+	 *         no cell and a living unit may step onto the one it died on
+	 */
+	boolean isCollision(long move, int first, int unit, int code) {
+		if (code >= ATTACK || hp[unit] <= 0) {
+			return false;
 		}
-		else {
-			return 0;
+		int x2 = x[unit] + DX[code];
+		int y2 = y[unit] + DY[code];
+		for (int other = first; other < unit; other++, move >>>= CODE_BITS) {
+			int otherCode = (int) move & CODE_MASK;
+			if (hp[other] > 0 && otherCode != STAY && otherCode < ATTACK && x[other] + DX[otherCode] == x2
+					&& y[other] + DY[otherCode] == y2) {
+				return true;
+			}
 		}
+		return false;
 	}
 
-	// generate final children
-	private List<GameStateChild> finalChildrenStates(List<List<Action>> agentActions) {
-		List<GameStateChild> children = new ArrayList<GameStateChild>();
+	/**
+	 * @return the cell the unit ends on with the code, y * xExtent + x, or -1 if
+	 *         it is dead
+	 */
+	int getEndCell(int unit, int code) {
+		if (hp[unit] <= 0) {
+			return -1;
+		}
+		if (code >= ATTACK) {
+			code = STAY;
+		}
+		return (y[unit] + DY[code]) * xExtent + x[unit] + DX[code];
+	}
 
-		if (agentActions.size() == 1) {
-			List<Action> currentAgentAction = agentActions.get(0);
-			for (Action action : currentAgentAction) {
-				Map<Integer, Action> actionMap = new HashMap<>();
-				actionMap.put(action.getUnitId(), action);
-				GameStateChild datNewChild = new GameStateChild(actionMap, createNewGameState(actionMap));
-			//	datNewChild.state.switchTurnNumber();
-				children.add(datNewChild);
-			}
+	/**
+	 * updates the HP totals after the unit's HP changed
+	 */
+	private void updateHealth(int unit, int oldHealth) {
+		int change = Math.max(hp[unit], 0) - Math.max(oldHealth, 0);
+		if (unit < footmanCount) {
+			footmenHealth += change;
 		} else {
-			List<Action> firstAgentAction = agentActions.get(0);
-			List<Action> secondAgentAction = agentActions.get(1);
-			for (Action firstAction : firstAgentAction) {
-				for (Action secondAction : secondAgentAction) {
-					Map<Integer, Action> actionMap = new HashMap<>();
-					actionMap.put(firstAction.getUnitId(), firstAction);
-					actionMap.put(secondAction.getUnitId(), secondAction);
-					GameStateChild datNewChild = new GameStateChild(actionMap, createNewGameState(actionMap));
-				//	datNewChild.state.switchTurnNumber();
-					children.add(datNewChild);
-				}
+			archerHealth += change;
+		}
+	}
+
+	/**
+	 * @return the walking distance between two units around the resources, the
+	 *         distances to the cell of the other unit are the ones kept
+	 */
+	private int getDistance(int unit, int other) {
+		return distances.getDistance(y[unit] * xExtent + x[unit], y[other] * xExtent + x[other]);
+	}
+
+	private boolean isOccupied(int cellX, int cellY) {
+		for (int unit = 0; unit < unitCount; unit++) {
+			if (hp[unit] > 0 && x[unit] == cellX && y[unit] == cellY) {
+				return true;
 			}
 		}
-		
-		return children;
+		return false;
 	}
 
-	/* helper methods to check if a move is legal */
-	private boolean legalMove(int x, int y) {
-		// check if spot on board is empty --> for future
-		if (x >= xExtent || x < 0 || y >= yExtent || y < 0) {
-			return false;
+	private long cellKey(int unit) {
+		return cellKeys[unit][y[unit] * xExtent + x[unit]];
+	}
+
+	/**
+	 * @return the key of the unit's HP, every HP of a dead unit has the key of 0
+	 */
+	private long healthKey(int unit) {
+		return healthKeys[unit][Math.max(hp[unit], 0)];
+	}
+
+	private boolean isSideDead(int first, int end) {
+		for (int unit = first; unit < end; unit++) {
+			if (hp[unit] > 0) {
+				return false;
+			}
 		}
 		return true;
 	}
 
+	/**
+	 * @return the HP of the unit, 0 or less once it is dead
+	 */
+	int getHealth(int unit) {
+		return hp[unit];
+	}
+
+	/**
+	 * @return the index of the first unit of the side, 0 for the footmen, 1 for
+	 *         the archers and 2 for the end of the archers
+	 */
+	int firstUnit(int side) {
+		return side == 0 ? 0 : side == 1 ? footmanCount : unitCount;
+	}
+
+	/* helper methods to check if a move is legal */
+	private boolean isLegalMove(int x, int y) {
+		return x >= 0 && x < xExtent && y >= 0 && y < yExtent;
+	}
 }
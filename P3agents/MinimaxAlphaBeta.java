@@ -8,6 +8,11 @@ import java.util.Comparator;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 
 import edu.cwru.sepia.action.Action;
 import edu.cwru.sepia.agent.Agent;
@@ -16,27 +21,52 @@ import edu.cwru.sepia.environment.model.state.State;
 
 public class MinimaxAlphaBeta extends Agent {
 
-	// comparing two states
+	// comparing two states by the history counters of the moves that led to them
 	public class GameStateChildComparator implements Comparator<GameStateChild> {
 		@Override
 		public int compare(GameStateChild o1, GameStateChild o2) {
-			if(o2.state.getUtility() > o1.state.getUtility()) {
+			int score1 = historyScore(o1);
+			int score2 = historyScore(o2);
+			if(score2 > score1) {
 				return 1;
 			}
-			
-			else if(o1.state.getUtility() > o2.state.getUtility()) {
+
+			else if(score1 > score2) {
 				return -1;
 			}
-			
+
 			else {
 				return 0;
 			}
-				
-		}	
+
+		}
+
+		private int historyScore(GameStateChild child) {
+			return searcher.getHistoryScore(child.state, child.state.getTurnNumber() ^ 1, child.state.getLastMove());
+		}
 	}
 
 	private final int numPlys;
 
+	// with a time budget the search goes deeper one ply at a time until the budget
+	// runs out instead of to numPlys, set by "time=<msecs>"
+	private long timeBudget = 0; // msecs
+	private static final int MAX_DEPTH = 64;
+
+	// values of the states searched so far, kept between turns
+	private static final int TABLE_BITS = 18;
+	private final TranspositionTable table = new TranspositionTable(TABLE_BITS);
+	private final AlphaBetaSearcher searcher = new AlphaBetaSearcher(table);
+
+	// Lazy SMP: helper threads search the same root while the agent does and
+	// share the table with it, set by "threads=<n>" counting the agent's own
+	private int threads = 1;
+	private AlphaBetaSearcher[] helpers = new AlphaBetaSearcher[0];
+	private ExecutorService helperPool;
+
+	// nodes visited on the last turn by the agent and its helpers
+	private long nodesSearched = 0;
+
 	public MinimaxAlphaBeta(int playernum, String[] args) {
 		super(playernum);
 
@@ -46,6 +76,31 @@ public class MinimaxAlphaBeta extends Agent {
 		}
 
 		numPlys = Integer.parseInt(args[0]);
+		for (int i = 1; i < args.length; i++) {
+			if (args[i].startsWith("time=")) {
+				timeBudget = Long.parseLong(args[i].substring("time=".length()));
+			} else if (args[i].startsWith("threads=")) {
+				threads = Integer.parseInt(args[i].substring("threads=".length()));
+			} else {
+				System.err.println("Unknown option " + args[i]);
+			}
+		}
+
+		if (threads > 1) {
+			helpers = new AlphaBetaSearcher[threads - 1];
+			for (int i = 0; i < helpers.length; i++) {
+				helpers[i] = new AlphaBetaSearcher(table);
+			}
+			// the helpers must not keep SEPIA running once the game is over
+			helperPool = Executors.newFixedThreadPool(helpers.length, new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable runnable) {
+					Thread thread = new Thread(runnable, "minimax helper");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+		}
 	}
 
 	@Override
@@ -55,10 +110,100 @@ public class MinimaxAlphaBeta extends Agent {
 
 	@Override
 	public Map<Integer, Action> middleStep(State.StateView newstate, History.HistoryView statehistory) {
-		GameStateChild bestChild = alphaBetaSearch(new GameStateChild(newstate), numPlys, Double.NEGATIVE_INFINITY,
-				Double.POSITIVE_INFINITY);
+		long startTime = System.nanoTime();
+		table.nextGeneration();
+		GameStateChild root = new GameStateChild(newstate);
+		long deadline = timeBudget > 0 ? startTime + timeBudget * 1000000 : Long.MAX_VALUE;
+		int maxDepth = timeBudget > 0 ? MAX_DEPTH : numPlys;
+		List<Future<?>> helperRuns = startHelpers(root.state, deadline, maxDepth);
+
+		// iterative deepening, each iteration stores its principal variation in the
+		// table and the next one searches it first. The first iteration is always
+		// finished so there is a move to make
+		GameStateChild bestChild = null;
+		int depthReached = 0;
+		searcher.reset(Long.MAX_VALUE);
+		for (int depth = 1; depth <= maxDepth; depth++) {
+			GameStateChild child = alphaBetaSearch(root, depth, Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY);
+			if (searcher.isTimeUp()) {
+				break;
+			}
+			bestChild = child;
+			depthReached = depth;
+			searcher.setDeadline(deadline);
+		}
+		stopHelpers(helperRuns);
 
-		return bestChild.action;
+		long nodes = searcher.getNodes();
+		long probes = searcher.getProbes();
+		long hits = searcher.getHits();
+		long expanded = searcher.getExpanded();
+		long cutoffs = searcher.getCutoffs();
+		long firstMoveCutoffs = searcher.getFirstMoveCutoffs();
+		for (AlphaBetaSearcher helper : helpers) {
+			nodes += helper.getNodes();
+			probes += helper.getProbes();
+			hits += helper.getHits();
+			expanded += helper.getExpanded();
+			cutoffs += helper.getCutoffs();
+			firstMoveCutoffs += helper.getFirstMoveCutoffs();
+		}
+		nodesSearched = nodes;
+		long elapsed = System.nanoTime() - startTime;
+		System.out.println("Searched " + nodes + " nodes to depth " + depthReached + " in " + elapsed / 1e6 + " ms, "
+				+ (probes == 0 ? 0 : 100 * hits / probes) + "% table hits, "
+				+ (expanded == 0 ? 0 : 100 * cutoffs / expanded) + "% cutoffs, "
+				+ (cutoffs == 0 ? 0 : 100 * firstMoveCutoffs / cutoffs) + "% on the first move");
+
+		// a side with no move at all has nothing to do this turn
+		return bestChild != null ? bestChild.action : new HashMap<Integer, Action>();
+	}
+
+	/**
+	 * starts every helper on a copy of the root, deepening like the agent does but
+	 * with every other helper one ply ahead of it, so the helpers fill the table
+	 * with the states the agent is about to reach
+	 */
+	private List<Future<?>> startHelpers(GameState root, long deadline, final int maxDepth) {
+		List<Future<?>> helperRuns = new ArrayList<Future<?>>();
+		for (int i = 0; i < helpers.length; i++) {
+			final AlphaBetaSearcher helper = helpers[i];
+			final GameState state = root.copy();
+			final int firstDepth = 1 + (i + 1) % 2;
+			helper.reset(deadline);
+			helperRuns.add(helperPool.submit(new Runnable() {
+				@Override
+				public void run() {
+					for (int depth = firstDepth; depth <= maxDepth && !helper.isTimeUp(); depth++) {
+						helper.search(state, depth, Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY);
+					}
+				}
+			}));
+		}
+		return helperRuns;
+	}
+
+	/**
+	 * stops the helpers and waits for them, so none of them is still writing to
+	 * the table when the next turn starts
+	 */
+	private void stopHelpers(List<Future<?>> helperRuns) {
+		for (AlphaBetaSearcher helper : helpers) {
+			helper.stop();
+		}
+		for (Future<?> helperRun : helperRuns) {
+			try {
+				helperRun.get();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			} catch (ExecutionException e) {
+				System.err.println("Helper search failed: " + e.getCause());
+			}
+		}
+	}
+
+	long getNodesSearched() {
+		return nodesSearched;
 	}
 
 	@Override
@@ -85,6 +230,11 @@ public class MinimaxAlphaBeta extends Agent {
 	 * Try to keep the logic in this function as abstract as possible (i.e. move as
 	 * much SEPIA specific code into other functions and methods)
 	 *
+	 * Only the children of the root are built as GameStateChild objects, below
+	 * them the search makes and takes back moves on a single GameState. The
+	 * child with the best move stored in the table for the root, which is the
+	 * one the last iteration of iterative deepening chose, is searched first.
+	 *
 	 * @param node
 	 *            The action and state to search from
 	 * @param depth
@@ -98,45 +248,47 @@ public class MinimaxAlphaBeta extends Agent {
 	 * @return The best child of this node with updated values
 	 */
 	public GameStateChild alphaBetaSearch(GameStateChild node, int depth, double alpha, double beta) {
-		System.out.println(node.state.getTurnNumber());
-		List<GameStateChild> children = node.state.getChildren();
-		children = orderChildrenWithHeuristics(children);
-		
-		if (depth == 0) {
+		if (depth == 0 || node.state.isTerminal()) {
 			return node;
 		}
-		// footman's turn
-		if (node.state.getTurnNumber() == 0) {
-			double v = Double.NEGATIVE_INFINITY;
-			GameStateChild bestChild = null;
-			for(GameStateChild child : children) {
-				v = Math.max(v, alphaBetaSearch(child, depth - 1, alpha, beta).state.getUtility());
-				alpha = Math.max(alpha, v);
-				if(alpha == v) {
-					bestChild = child;
-				}
-				if(beta <= alpha) {
-					break;
-				}
+
+		List<GameStateChild> children = orderChildrenWithHeuristics(node.state.getChildren());
+		boolean maximizing = node.state.getTurnNumber() == 0;
+
+		long tableMove = searcher.getTableMove(node.state);
+		for (int i = 0; i < children.size(); i++) {
+			if (children.get(i).state.getLastMove() == tableMove) {
+				children.add(0, children.remove(i));
+				break;
 			}
-			return bestChild;
 		}
-		// archer's turn
-		else {
-			double v = Double.POSITIVE_INFINITY;
-			GameStateChild bestChild = null;
-			for(GameStateChild child : children) {
-				v = Math.min(v, alphaBetaSearch(child, depth - 1, alpha, beta).state.getUtility());
-				beta = Math.min(beta, v);
-				if(beta == v) {
-					bestChild = child;
-				}
-				if(beta <= alpha) {
-					break;
-				}
+
+		double alphaBefore = alpha;
+		double betaBefore = beta;
+		double value = maximizing ? Double.NEGATIVE_INFINITY : Double.POSITIVE_INFINITY;
+		GameStateChild bestChild = null;
+		for (GameStateChild child : children) {
+			double childValue = searcher.search(child.state, depth - 1, alpha, beta);
+			if (maximizing ? childValue > value : childValue < value) {
+				value = childValue;
+				bestChild = child;
+			}
+			if (maximizing) {
+				alpha = Math.max(alpha, value);
+			} else {
+				beta = Math.min(beta, value);
+			}
+			if (beta <= alpha) {
+				break;
 			}
-			return bestChild;
 		}
+
+		if (!searcher.isTimeUp() && bestChild != null) {
+			byte bound = value <= alphaBefore ? TranspositionTable.UPPER_BOUND
+					: value >= betaBefore ? TranspositionTable.LOWER_BOUND : TranspositionTable.EXACT;
+			table.store(node.state.getHash(), depth, bound, (int) value, bestChild.state.getLastMove());
+		}
+		return bestChild;
 	}
 
 	/**
@@ -150,6 +302,12 @@ public class MinimaxAlphaBeta extends Agent {
 	 *
 	 * Include a good comment about what your heuristics are and why you chose them.
 	 *
+	 * The children are sorted by the history counters of the moves that led to
+	 * them, the moves whose unit codes cut off the most nodes so far come first.
+	 * That needs no utility of the children, and getChildren already has each
+	 * unit's codes in a sensible order for the children the counters cannot
+	 * tell apart.
+	 *
 	 * @param children
 	 * @return The list of children sorted by your heuristic.
 	 */
@@ -157,4 +315,4 @@ public class MinimaxAlphaBeta extends Agent {
 		Collections.sort(children, new GameStateChildComparator());
 		return children;
 	}
-}
\ No newline at end of file
+}
@@ -0,0 +1,230 @@
+package edu.cwru.sepia.agent.minimax;
+
+/**
+ * Hands out the moves of the side whose turn it is in a GameState one at a
+ * time, so a search that is cut off after the first few moves of a node never
+ * builds the rest. It counts through the codes of every unit like an odometer,
+ * the last unit turning fastest, and skips a combination as soon as a unit
+ * would step onto the cell an earlier unit steps onto, without going through
+ * the moves of the units after it.
+ *
+ * The move stored in the transposition table is handed out first, before the
+ * units' codes are even looked up. The killer moves, which cut off another
+ * node at the same depth, come next if they can be made in this state. The
+ * rest follow with each unit's codes sorted by the history counters, the
+ * codes that cut off the most nodes first, and getUnitMoves's order between
+ * codes with the same count.
+ *
+ * A unit only stays when it can neither attack nor step, so when every unit
+ * can step and the steps all end on the same cells no combination is left. The
+ * generator then hands out the move where every unit stays, a side always has
+ * a move.
+ *
+ * A generator can be reset and used again for the next node, the search keeps
+ * one for each ply so it does not allocate while it runs.
+ */
+class MoveGenerator {
+	// STAY is 0, so a move of nothing but STAY codes is 0
+	static final long ALL_STAY = 0;
+
+	private GameState state;
+	private int first;
+	private int units;
+
+	// the codes each unit can use, a unit that can neither attack nor step only
+	// has STAY
+	private final int[][] codes = new int[GameState.MAX_SIDE][1 << GameState.CODE_BITS];
+	private final int[] codeCounts = new int[GameState.MAX_SIDE];
+
+	// scratch space getUnitMoves orders the codes of a unit in
+	private final int[] keys = new int[1 << GameState.CODE_BITS];
+
+	// the code each unit is on, and the move made of the codes of the units
+	// before it
+	private final int[] digits = new int[GameState.MAX_SIDE];
+	private final long[] partial = new long[GameState.MAX_SIDE + 1];
+	private int level;
+
+	// the moves to hand out before the others, NO_MOVE where there is none
+	private long tableMove;
+	private final long[] killers = new long[2];
+	private int killerIndex;
+	private boolean started;
+
+	// how often each code of each unit cut off a node, weighted by depth, or
+	// null to keep getUnitMoves's order
+	private int[][] history;
+	private final int[] scores = new int[1 << GameState.CODE_BITS];
+
+	// the move found by hasNext that next has not returned yet
+	private boolean ready;
+	private long move;
+
+	// how many moves next has returned, and whether the move where every unit
+	// stays has been handed out because no other was left
+	private int handedOut;
+	private boolean stayed;
+
+	/**
+	 * starts over on the moves of the side to move in the state, which must not
+	 * change until the generator is done with it or reset
+	 */
+	void reset(GameState state) {
+		reset(state, TranspositionTable.NO_MOVE, TranspositionTable.NO_MOVE, TranspositionTable.NO_MOVE);
+	}
+
+	/**
+	 * @param tableMove a move of the side to move to hand out first, or NO_MOVE
+	 * @param killer1 a move to hand out next if the side to move can make it, or
+	 *            NO_MOVE
+	 * @param killer2 the same, handed out after killer1
+	 */
+	void reset(GameState state, long tableMove, long killer1, long killer2) {
+		this.state = state;
+		this.tableMove = tableMove;
+		killers[0] = killer1 != tableMove ? killer1 : TranspositionTable.NO_MOVE;
+		killers[1] = killer2 != tableMove && killer2 != killer1 ? killer2 : TranspositionTable.NO_MOVE;
+		killerIndex = 0;
+		started = false;
+		handedOut = 0;
+		stayed = false;
+		ready = tableMove != TranspositionTable.NO_MOVE;
+		move = tableMove;
+	}
+
+	/**
+	 * @param history counters indexed by unit and code, kept by the caller and
+	 *            read when the units' codes are looked up
+	 */
+	void setHistory(int[][] history) {
+		this.history = history;
+	}
+
+	boolean hasNext() {
+		while (!ready) {
+			if (!started) {
+				start();
+			}
+			if (killerIndex < killers.length) {
+				move = killers[killerIndex++];
+				ready = move != TranspositionTable.NO_MOVE && canMake(move);
+				continue;
+			}
+			if (!advance()) {
+				if (handedOut > 0 || stayed) {
+					return false;
+				}
+				stayed = true;
+				move = ALL_STAY;
+				ready = true;
+				continue;
+			}
+			ready = move != tableMove && move != killers[0] && move != killers[1];
+		}
+		return true;
+	}
+
+	long next() {
+		if (!hasNext()) {
+			throw new IllegalStateException("No moves left");
+		}
+		ready = false;
+		handedOut++;
+		return move;
+	}
+
+	/**
+	 * looks up the codes of the units and sets the odometer to the first move
+	 */
+	private void start() {
+		started = true;
+		first = state.firstUnit(state.getTurnNumber());
+		units = state.firstUnit(state.getTurnNumber() + 1) - first;
+		for (int unit = 0; unit < units; unit++) {
+			codeCounts[unit] = state.getUnitMoves(first + unit, codes[unit], keys);
+			if (codeCounts[unit] == 0) {
+				codes[unit][0] = GameState.STAY;
+				codeCounts[unit] = 1;
+			} else if (history != null) {
+				sortByHistory(codes[unit], codeCounts[unit], history[first + unit]);
+			}
+		}
+		digits[0] = 0;
+		partial[0] = 0;
+		level = 0;
+	}
+
+	/**
+	 * stable insertion sort of the codes from the highest count to the lowest
+	 */
+	private void sortByHistory(int[] unitCodes, int count, int[] counts) {
+		for (int i = 0; i < count; i++) {
+			scores[i] = counts[unitCodes[i]];
+		}
+		for (int i = 1; i < count; i++) {
+			int code = unitCodes[i];
+			int score = scores[i];
+			int j = i - 1;
+			while (j >= 0 && scores[j] < score) {
+				unitCodes[j + 1] = unitCodes[j];
+				scores[j + 1] = scores[j];
+				j--;
+			}
+			unitCodes[j + 1] = code;
+			scores[j + 1] = score;
+		}
+	}
+
+	/**
+	 * @return true if the move is one the odometer hands out, a killer from
+	 *         another node may have a unit step onto a cell that is taken here or
+	 *         attack a unit that is out of range
+	 */
+	private boolean canMake(long candidate) {
+		long rest = candidate;
+		for (int unit = 0; unit < units; unit++, rest >>>= GameState.CODE_BITS) {
+			int code = (int) rest & GameState.CODE_MASK;
+			int i = 0;
+			while (i < codeCounts[unit] && codes[unit][i] != code) {
+				i++;
+			}
+			if (i == codeCounts[unit] || state.isCollision(candidate, first, first + unit, code)) {
+				return false;
+			}
+		}
+		return rest == 0;
+	}
+
+	/**
+	 * turns the odometer to the next move without collisions
+	 * @return false once every move has been handed out
+	 */
+	private boolean advance() {
+		while (level >= 0) {
+			if (digits[level] == codeCounts[level]) {
+				// every code of this unit is done with, the unit before it moves on
+				level--;
+				if (level >= 0) {
+					digits[level]++;
+				}
+				continue;
+			}
+
+			int code = codes[level][digits[level]];
+			if (state.isCollision(partial[level], first, first + level, code)) {
+				digits[level]++;
+				continue;
+			}
+
+			partial[level + 1] = partial[level] | (long) code << level * GameState.CODE_BITS;
+			if (level == units - 1) {
+				digits[level]++;
+				move = partial[units];
+				return true;
+			}
+			level++;
+			digits[level] = 0;
+		}
+		return false;
+	}
+}
@@ -0,0 +1,210 @@
+package edu.cwru.sepia.agent.minimax;
+
+import java.io.File;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import edu.cwru.sepia.environment.model.persistence.generated.XmlPlayer;
+import edu.cwru.sepia.environment.model.persistence.generated.XmlResourceNode;
+import edu.cwru.sepia.environment.model.persistence.generated.XmlState;
+import edu.cwru.sepia.environment.model.persistence.generated.XmlUnit;
+import edu.cwru.sepia.environment.model.state.XmlStateCreator;
+
+/**
+ * Checks the moves of MoveGenerator against every combination of the units'
+ * codes, run without starting Sepia. A combination is a move when no two
+ * living units end up on the same cell, a dead unit stays where it died and
+ * is on no cell. When no combination is left every unit stays.
+ *
+ * It first checks two states the generator once had no move for: a footman
+ * that can only step onto the cell a teammate after it died on, and two
+ * footmen that can only step onto the same cell. Then it checks every state
+ * of random games with more units on the maps of the assignment, so units die
+ * all over the map. It prints the states checked and the ones the generator
+ * got wrong, which must be 0.
+ *
+ * Usage: java edu.cwru.sepia.agent.minimax.MoveGeneratorCheck [data directory] [units per side]
+ */
+public class MoveGeneratorCheck {
+	private static final String[] MAPS = { "Game2fv2a", "Game2fv2a_Obstacles" };
+	private static final int UNITS = 4;
+	private static final int SEEDS = 3;
+	private static final int GAMES = 200;
+	private static final int PLIES = 200;
+
+	public static void main(String[] args) throws Exception {
+		String dataDirectory = args.length > 0 ? args[0] : "ProgrammingData/Programming3/data";
+		int units = args.length > 1 ? Integer.parseInt(args[1]) : UNITS;
+
+		File file = new File(dataDirectory, "Game2fv2a_Obstacles.xml");
+		check("dead teammate", deadTeammateState(file), 1);
+		check("same single step", sameStepState(file), 1);
+
+		System.out.println(String.format("%-28s %10s %10s", "scenario", "states", "wrong"));
+		for (String map : MAPS) {
+			for (int seed = 0; seed < SEEDS; seed++) {
+				XmlState xmlState = EvaluationBenchmark.loadXmlState(new File(dataDirectory, map + ".xml"));
+				EvaluationBenchmark.placeUnits(xmlState, units, seed);
+				GameState start = new GameState(new XmlStateCreator(xmlState).createState().getView(0));
+
+				Random random = new Random(seed);
+				int states = 0;
+				int wrong = 0;
+				for (int game = 0; game < GAMES; game++) {
+					GameState current = start.copy();
+					for (int ply = 0; ply < PLIES && !current.isTerminal(); ply++) {
+						Set<Long> expected = enumerate(current);
+						if (!generate(current).equals(expected)) {
+							wrong++;
+						}
+						states++;
+						Long[] choices = expected.toArray(new Long[expected.size()]);
+						current.applyMove(choices[random.nextInt(choices.length)]);
+					}
+				}
+				System.out.println(String.format("%-28s %10d %10d", map + " seed " + seed, states, wrong));
+			}
+		}
+	}
+
+	/**
+	 * prints whether the generator hands out the moves of the state and how many
+	 * there should be
+	 */
+	private static void check(String name, GameState state, int count) {
+		Set<Long> moves = generate(state);
+		System.out.println(String.format("%-28s %10s", name,
+				moves != null && moves.equals(enumerate(state)) && moves.size() == count ? "ok" : "wrong " + moves));
+	}
+
+	/**
+	 * footman 0 in a corner with a tree below it and footman 1 with 1 HP east of
+	 * it, which the archer kills while the footmen stay, so footman 0 can only
+	 * step east onto the cell footman 1 died on
+	 */
+	private static GameState deadTeammateState(File file) throws Exception {
+		XmlState xmlState = EvaluationBenchmark.loadXmlState(file);
+		placeTrees(xmlState, new int[][] { { 0, 1 } });
+
+		XmlPlayer footmen = xmlState.getPlayer().get(0);
+		XmlPlayer archers = xmlState.getPlayer().get(1);
+		archers.getUnit().subList(1, archers.getUnit().size()).clear();
+		setUnit(footmen.getUnit().get(0), 0, 0, footmen.getUnit().get(0).getCurrentHealth());
+		setUnit(footmen.getUnit().get(1), 1, 0, 1);
+		setUnit(archers.getUnit().get(0), 3, 0, archers.getUnit().get(0).getCurrentHealth());
+
+		GameState state = new GameState(new XmlStateCreator(xmlState).createState().getView(0));
+		state.applyMove(GameState.STAY);
+		state.applyMove(GameState.ATTACK + 1);
+		return state;
+	}
+
+	/**
+	 * footman 0 in a corner with a tree below it and footman 1 two cells east of
+	 * it with trees east of and below it, so the only step of each is onto the
+	 * cell between them and both have to stay
+	 */
+	private static GameState sameStepState(File file) throws Exception {
+		XmlState xmlState = EvaluationBenchmark.loadXmlState(file);
+		placeTrees(xmlState, new int[][] { { 0, 1 }, { 2, 1 }, { 3, 0 } });
+
+		XmlPlayer footmen = xmlState.getPlayer().get(0);
+		XmlPlayer archers = xmlState.getPlayer().get(1);
+		archers.getUnit().subList(1, archers.getUnit().size()).clear();
+		setUnit(footmen.getUnit().get(0), 0, 0, footmen.getUnit().get(0).getCurrentHealth());
+		setUnit(footmen.getUnit().get(1), 2, 0, footmen.getUnit().get(1).getCurrentHealth());
+		setUnit(archers.getUnit().get(0), 12, 12, archers.getUnit().get(0).getCurrentHealth());
+
+		return new GameState(new XmlStateCreator(xmlState).createState().getView(0));
+	}
+
+	/**
+	 * replaces the resources with trees on the cells, copies of the first one
+	 */
+	private static void placeTrees(XmlState xmlState, int[][] cells) {
+		XmlResourceNode template = xmlState.getResourceNode().get(0);
+		xmlState.getResourceNode().clear();
+		for (int[] cell : cells) {
+			XmlResourceNode tree = new XmlResourceNode();
+			tree.setID(template.getID() + xmlState.getResourceNode().size());
+			tree.setType(template.getType());
+			tree.setXPosition(cell[0]);
+			tree.setYPosition(cell[1]);
+			tree.setInitialAmount(template.getInitialAmount());
+			tree.setAmountRemaining(template.getAmountRemaining());
+			xmlState.getResourceNode().add(tree);
+		}
+	}
+
+	private static void setUnit(XmlUnit unit, int x, int y, int health) {
+		unit.setXPosition(x);
+		unit.setYPosition(y);
+		unit.setCurrentHealth(health);
+	}
+
+	/**
+	 * @return the moves the generator hands out, null if it hands one out twice
+	 */
+	private static Set<Long> generate(GameState state) {
+		Set<Long> moves = new HashSet<Long>();
+		MoveGenerator generator = new MoveGenerator();
+		generator.reset(state);
+		while (generator.hasNext()) {
+			if (!moves.add(generator.next())) {
+				return null;
+			}
+		}
+		return moves;
+	}
+
+	/**
+	 * @return every combination of the units' codes with no two living units on
+	 *         the same cell, a unit with no codes stays, or the move where every
+	 *         unit stays if there is no such combination
+	 */
+	private static Set<Long> enumerate(GameState state) {
+		int first = state.firstUnit(state.getTurnNumber());
+		int units = state.firstUnit(state.getTurnNumber() + 1) - first;
+		int[][] codes = new int[units][1 << GameState.CODE_BITS];
+		int[] counts = new int[units];
+		int[] keys = new int[1 << GameState.CODE_BITS];
+		for (int unit = 0; unit < units; unit++) {
+			counts[unit] = state.getUnitMoves(first + unit, codes[unit], keys);
+			if (counts[unit] == 0) {
+				codes[unit][0] = GameState.STAY;
+				counts[unit] = 1;
+			}
+		}
+
+		Set<Long> moves = new HashSet<Long>();
+		int[] digits = new int[units];
+		while (true) {
+			long move = 0;
+			Set<Integer> cells = new HashSet<Integer>();
+			boolean collision = false;
+			for (int unit = 0; unit < units; unit++) {
+				int code = codes[unit][digits[unit]];
+				move |= (long) code << unit * GameState.CODE_BITS;
+				int cell = state.getEndCell(first + unit, code);
+				if (cell >= 0) {
+					collision |= !cells.add(cell);
+				}
+			}
+			if (!collision) {
+				moves.add(move);
+			}
+
+			int unit = units - 1;
+			while (unit >= 0 && ++digits[unit] == counts[unit]) {
+				digits[unit--] = 0;
+			}
+			if (unit < 0) {
+				if (moves.isEmpty()) {
+					moves.add(MoveGenerator.ALL_STAY);
+				}
+				return moves;
+			}
+		}
+	}
+}
@@ -0,0 +1,90 @@
+package edu.cwru.sepia.agent.minimax;
+
+import java.io.File;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.Arrays;
+
+import edu.cwru.sepia.environment.model.state.State;
+import edu.cwru.sepia.environment.model.state.XmlStateCreator;
+
+/**
+ * Speedup of the parallel search, run without starting Sepia. The start state
+ * of each map is read straight from its XML and a new agent with an empty table
+ * searches it to a fixed depth with one thread and then with more, so every
+ * search does the whole work on its own.
+ *
+ * For each map and thread count it prints the median time of a search, the
+ * nodes the agent and its helpers visited, the nodes per second and the speedup
+ * over one thread. Lazy SMP only gets faster with threads when there are cores
+ * for them to run on.
+ *
+ * Usage: java edu.cwru.sepia.agent.minimax.SearchBenchmark [data directory] [depth] [threads...]
+ */
+public class SearchBenchmark {
+	private static final String[] MAPS = { "Game2fv2a", "Game2fv2a_Obstacles" };
+	private static final int DEPTH = 9;
+	private static final int[] THREADS = { 1, 2, 4, 8 };
+
+	// searches per map and thread count, the first ones warm up the JIT
+	private static final int WARMUPS = 2;
+	private static final int SEARCHES = 5;
+
+	public static void main(String[] args) throws Exception {
+		String dataDirectory = args.length > 0 ? args[0] : "ProgrammingData/Programming3/data";
+		int depth = args.length > 1 ? Integer.parseInt(args[1]) : DEPTH;
+		int[] threadCounts = THREADS;
+		if (args.length > 2) {
+			threadCounts = new int[args.length - 2];
+			for (int i = 2; i < args.length; i++) {
+				threadCounts[i - 2] = Integer.parseInt(args[i]);
+			}
+		}
+
+		// the agent prints every search, which is not what is measured
+		PrintStream out = System.out;
+		System.setOut(new PrintStream(new OutputStream() {
+			@Override
+			public void write(int b) {
+			}
+
+			@Override
+			public void write(byte[] b, int off, int len) {
+			}
+		}));
+
+		out.println(String.format("%-22s %8s %12s %14s %14s %10s", "map", "threads", "ms", "nodes", "nodes/s",
+				"speedup"));
+		for (String map : MAPS) {
+			State state = loadState(new File(dataDirectory, map + ".xml"));
+			double singleThreaded = 0;
+			for (int threads : threadCounts) {
+				long[] times = new long[SEARCHES];
+				long nodes = 0;
+				for (int i = -WARMUPS; i < SEARCHES; i++) {
+					MinimaxAlphaBeta agent = new MinimaxAlphaBeta(0,
+							new String[] { Integer.toString(depth), "threads=" + threads });
+					long startTime = System.nanoTime();
+					agent.middleStep(state.getView(0), null);
+					long elapsed = System.nanoTime() - startTime;
+					if (i >= 0) {
+						times[i] = elapsed;
+						nodes += agent.getNodesSearched();
+					}
+				}
+				Arrays.sort(times);
+				double median = times[SEARCHES / 2] / 1e6;
+				if (singleThreaded == 0) {
+					singleThreaded = median;
+				}
+				out.println(String.format("%-22s %8d %12.1f %14d %14.0f %10.2f", map, threads, median,
+						nodes / SEARCHES, nodes / SEARCHES / (median / 1e3), singleThreaded / median));
+			}
+		}
+		System.exit(0);
+	}
+
+	private static State loadState(File file) throws Exception {
+		return new XmlStateCreator(EvaluationBenchmark.loadXmlState(file)).createState();
+	}
+}
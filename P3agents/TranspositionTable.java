@@ -0,0 +1,124 @@
+package edu.cwru.sepia.agent.minimax;
+
+/**
+ * Fixed size table of the values the search found for the states it has seen,
+ * keyed by the Zobrist hash of the state. Each entry keeps the depth it was
+ * searched to, whether the value is exact or only a bound from a cutoff, the
+ * value and the best move, in parallel primitive arrays indexed by the low bits
+ * of the hash.
+ *
+ * A new entry replaces the old one in its slot unless the old one was searched
+ * deeper on the same turn, so the deep entries near the root survive the many
+ * shallow ones near the leaves, while entries left over from earlier turns
+ * always make way. The table is kept between turns so the next search starts
+ * with what the last one found.
+ *
+ * Several search threads can share the table without locks. The depth, bound,
+ * value and turn of an entry are packed into one long, and the slot's check
+ * word is the hash XOR that long XOR the move, so an entry that one thread read
+ * while another was halfway through writing it does not match its hash and is
+ * taken as a miss.
+ */
+public class TranspositionTable {
+	// the kinds of value an entry can hold
+	static final byte EXACT = 0;
+	static final byte LOWER_BOUND = 1;
+	static final byte UPPER_BOUND = 2;
+
+	// stored as the move of an entry that has none
+	static final long NO_MOVE = -1;
+
+	// layout of the packed entry: the value in the low 32 bits, then the depth
+	// plus one so an empty slot has depth 0, the bound and the turn
+	private static final int DEPTH_SHIFT = 32;
+	private static final int BOUND_SHIFT = 40;
+	private static final int GENERATION_SHIFT = 48;
+
+	private final int mask;
+	private final long[] checks;
+	private final long[] entries;
+	private final long[] moves;
+
+	// the turn the entries are stored for, wraps around after 256 turns
+	private int generation = 0;
+
+	/**
+	 * @param bits the table has 2^bits entries
+	 */
+	public TranspositionTable(int bits) {
+		if (bits < 1 || bits > 30) {
+			throw new IllegalArgumentException("The table must have between 2^1 and 2^30 entries");
+		}
+
+		int size = 1 << bits;
+		mask = size - 1;
+		checks = new long[size];
+		entries = new long[size];
+		moves = new long[size];
+	}
+
+	/**
+	 * starts a new turn, the entries stored so far are kept but give way to new
+	 * ones. Must not be called while a search is running
+	 */
+	public void nextGeneration() {
+		generation = (generation + 1) & 0xFF;
+	}
+
+	/**
+	 * @param entry filled with the packed entry and the best move of the state
+	 * @return false if the state is not in the table
+	 */
+	public boolean probe(long hash, long[] entry) {
+		int slot = (int) hash & mask;
+		long packed = entries[slot];
+		long move = moves[slot];
+		if (depthOf(packed) < 0 || (checks[slot] ^ packed ^ move) != hash) {
+			return false;
+		}
+		entry[0] = packed;
+		entry[1] = move;
+		return true;
+	}
+
+	/**
+	 * @param depth the plys the state was searched to
+	 * @param bound EXACT, LOWER_BOUND if the search was cut off because the value
+	 *            was too high or UPPER_BOUND if no move reached the lower end of
+	 *            the window
+	 * @param move the best move found, or NO_MOVE
+	 */
+	public void store(long hash, int depth, byte bound, int value, long move) {
+		int slot = (int) hash & mask;
+		long old = entries[slot];
+		if (generationOf(old) == generation && depthOf(old) > depth
+				&& (checks[slot] ^ old ^ moves[slot]) != hash) {
+			return;
+		}
+
+		long packed = (value & 0xFFFFFFFFL) | (long) (depth + 1) << DEPTH_SHIFT | (long) bound << BOUND_SHIFT
+				| (long) generation << GENERATION_SHIFT;
+		entries[slot] = packed;
+		moves[slot] = move;
+		checks[slot] = hash ^ packed ^ move;
+	}
+
+	/**
+	 * @return the plys the entry was searched to, -1 for an empty slot
+	 */
+	static int depthOf(long packed) {
+		return (int) (packed >>> DEPTH_SHIFT & 0xFF) - 1;
+	}
+
+	static byte boundOf(long packed) {
+		return (byte) (packed >>> BOUND_SHIFT & 0xFF);
+	}
+
+	static int valueOf(long packed) {
+		return (int) packed;
+	}
+
+	private static int generationOf(long packed) {
+		return (int) (packed >>> GENERATION_SHIFT & 0xFF);
+	}
+}